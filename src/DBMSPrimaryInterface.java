@@ -1,6 +1,7 @@
 import java.util.Scanner;
 import options.*;
 import sql.SQL;
+import utilities.StartupTimer;
 import utilities.Utilities;
 
 public class DBMSPrimaryInterface {	
@@ -14,10 +15,17 @@ public class DBMSPrimaryInterface {
      *            the command line arguments
      */
     public static void main(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--timing")) {
+                StartupTimer.enable();
+            }
+        }
+
         /*
          * Initialize database (handled inside SQL.java)
          */
         SQL.initializeDB(DATABASE);
+        SQL.warmUpInBackground();
 
         /*
          * Read user input until they request to exit.
@@ -47,6 +55,15 @@ public class DBMSPrimaryInterface {
                 case "6":
                     Reports.generateReports(input);
                     break;
+                case "7":
+                    OutputSettings.outputMenu(input);
+                    break;
+                case "8":
+                    BackupMenu.backupMenu(input);
+                    break;
+                case "9":
+                    ArchiveHistory.archiveMenu(input);
+                    break;
                 case "0":
                     System.out.println("Goodbye.");
                     break;
@@ -0,0 +1,74 @@
+package options;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Scanner;
+
+import sql.Archive;
+import sql.SQL;
+
+public class ArchiveHistory {
+
+    /**
+     * Moves closed rentals and old reviews to the archive database.
+     *
+     * @param input the input stream
+     */
+    public static void archiveMenu(Scanner input) {
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        String through = Archive.getArchivedThrough();
+        System.out.println(through == null
+                ? "Nothing has been archived yet."
+                : "History before " + through + " is archived.");
+        System.out.println("Closed rentals checked out before the cutoff and reviews dated before it");
+        System.out.println("will be moved to " + Archive.getArchiveFile() + ".");
+
+        String cutoff = "";
+        while (cutoff.isEmpty()) {
+            System.out.print("Enter cutoff date (YYYY-MM-DD) (or 'q' to cancel): ");
+            cutoff = input.nextLine().trim();
+            if (cutoff.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return;
+            }
+            if (!cutoff.matches("\\d{4}-\\d{2}-\\d{2}")) {
+                System.out.println("Please use YYYY-MM-DD format.");
+                cutoff = "";
+            }
+        }
+
+        int chunkSize = 0;
+        while (chunkSize <= 0) {
+            System.out.print("Rows per transaction (blank for 500): ");
+            String line = input.nextLine().trim();
+            if (line.isEmpty()) {
+                chunkSize = 500;
+                break;
+            }
+            try {
+                chunkSize = Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                chunkSize = 0;
+            }
+            if (chunkSize <= 0) {
+                System.out.println("Please enter a positive whole number.");
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            int moved = Archive.archiveBefore(conn, cutoff, chunkSize);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(moved + " row(s) archived in " + millis + " ms.");
+            // Read connections attach the archive when they are opened.
+            SQL.resetReadConnection();
+        } catch (SQLException e) {
+            System.out.println("Error archiving history: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package options;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Scanner;
+
+import sql.Backup;
+
+public class BackupMenu {
+
+    /**
+     * Backup and restore sub-menu.
+     *
+     * @param input the input stream
+     */
+    public static void backupMenu(Scanner input) {
+        String selection = "";
+        while (!selection.equals("0")) {
+            System.out.println("Select an option:");
+            System.out.println("  (1): Take a snapshot now.");
+            System.out.println("  (2): Schedule snapshots"
+                    + (Backup.isScheduled() ? " (currently scheduled)." : "."));
+            System.out.println("  (3): Stop scheduled snapshots.");
+            System.out.println("  (4): List snapshots.");
+            System.out.println("  (5): Restore from a snapshot.");
+            System.out.println("  (6): Take a compact snapshot now (VACUUM INTO; one read transaction).");
+            System.out.println("  (0): Back to main menu.");
+            System.out.print("> ");
+            selection = input.nextLine().trim();
+
+            switch (selection) {
+                case "1":
+                    Backup.snapshot();
+                    break;
+                case "2":
+                    scheduleSnapshots(input);
+                    break;
+                case "3":
+                    if (Backup.cancelSchedule()) {
+                        System.out.println("Scheduled snapshots stopped.");
+                    } else {
+                        System.out.println("No snapshots are scheduled.");
+                    }
+                    break;
+                case "4":
+                    listSnapshots();
+                    break;
+                case "5":
+                    restoreSnapshot(input);
+                    break;
+                case "6":
+                    Backup.snapshot(true);
+                    break;
+                case "0":
+                    // back to main menu
+                    break;
+                default:
+                    System.out.println("Invalid input.");
+            }
+        }
+    }
+
+    private static void scheduleSnapshots(Scanner input) {
+        while (true) {
+            System.out.print("Snapshot interval in minutes (or 'q' to cancel): ");
+            String line = input.nextLine().trim();
+            if (line.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return;
+            }
+            try {
+                long minutes = Long.parseLong(line);
+                if (minutes > 0) {
+                    Backup.schedule(minutes);
+                    System.out.println("A snapshot will be taken every " + minutes + " minute(s).");
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            System.out.println("Please enter a positive whole number.");
+        }
+    }
+
+    private static void listSnapshots() {
+        try {
+            java.util.List<Path> snapshots = Backup.listSnapshots();
+            if (snapshots.isEmpty()) {
+                System.out.println("No snapshots in " + Backup.getDirectory() + ".");
+                return;
+            }
+            for (int i = 0; i < snapshots.size(); i++) {
+                System.out.println("[" + i + "] " + snapshots.get(i).getFileName());
+            }
+        } catch (IOException e) {
+            System.out.println("Error listing snapshots: " + e.getMessage());
+        }
+    }
+
+    private static void restoreSnapshot(Scanner input) {
+        java.util.List<Path> snapshots;
+        try {
+            snapshots = Backup.listSnapshots();
+        } catch (IOException e) {
+            System.out.println("Error listing snapshots: " + e.getMessage());
+            return;
+        }
+        if (snapshots.isEmpty()) {
+            System.out.println("No snapshots in " + Backup.getDirectory() + ".");
+            return;
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            System.out.println("[" + i + "] " + snapshots.get(i).getFileName());
+        }
+
+        System.out.print("Enter snapshot number to restore, or 'c' to cancel: ");
+        String line = input.nextLine().trim();
+        int idx;
+        try {
+            idx = Integer.parseInt(line);
+        } catch (NumberFormatException e) {
+            System.out.println("Canceled.");
+            return;
+        }
+        if (idx < 0 || idx >= snapshots.size()) {
+            System.out.println("ID out of range.");
+            return;
+        }
+
+        System.out.print("This replaces all current data. Type 'yes' to continue: ");
+        if (!input.nextLine().trim().equalsIgnoreCase("yes")) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        try {
+            Backup.restore(snapshots.get(idx));
+        } catch (SQLException e) {
+            System.out.println("Error restoring snapshot: " + e.getMessage());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package options;
 import java.util.Scanner;
 
 import sql.SQL;
+import sql.SchemaRegistry;
 import utilities.Utilities;
 
 public class List {
@@ -30,10 +31,16 @@ public class List {
                 continue;
             }
 
-            // Simple static SELECT * using the SQL helper
-            String sql = "SELECT * FROM " + entityName + ";";
+            // Simple static SELECT * using the SQL helper, in primary key
+            // order so SQLite can walk the key index instead of sorting
+            String sql = "SELECT * FROM " + entityName;
+            java.util.List<String> pk = SchemaRegistry.primaryKeyOf(entityName);
+            if (!pk.isEmpty()) {
+                sql += " ORDER BY " + String.join(", ", pk);
+            }
+            sql += ";";
             System.out.println("Listing all rows from " + entityName + ":");
-            SQL.sqlQuery(sql);   // uses the Statement-based version
+            SQL.sqlQuery(sql, entityName);   // uses the Statement-based version
 
             // List once and return to main menu.
             done = true;
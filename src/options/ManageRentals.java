@@ -1,12 +1,23 @@
 package options;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Scanner;
 
+import sql.Availability;
+import sql.ChangeLog;
+import sql.RentalDetails;
+import sql.ResultTable;
 import sql.SQL;
+import sql.ServiceArea;
+import sql.WritePolicy;
 import utilities.EntityDefinition;
 import utilities.Utilities;
 
@@ -26,7 +37,6 @@ public class ManageRentals {
                 case "1": { // create rental transaction
                     final Integer rentalIndex = EntityDefinition.RENTAL_TRANSACTION.getIndex();
                     NewEntity.createNew(rentalIndex, input);
-                    System.out.println("Rental transaction created.");
                     break;
                 }
                 case "2": { // register a return (update return_date)
@@ -41,6 +51,24 @@ public class ManageRentals {
                     schedulePickUpSimple(input);
                     break;
                 }
+                case "5": { // view rental details
+                    viewRentalDetails(input);
+                    break;
+                }
+                case "6": { // members near a warehouse
+                    membersNearWarehouse(input);
+                    break;
+                }
+                case "7": { // equipment available now
+                    findAvailableEquipment(input);
+                    break;
+                }
+                case "8": { // member/equipment cache for rental details
+                    RentalDetails.setCacheEnabled(!RentalDetails.isCacheEnabled());
+                    System.out.println("Member and equipment cache for rental details is now "
+                            + (RentalDetails.isCacheEnabled() ? "on" : "off") + ".");
+                    break;
+                }
                 case "0":
                     // back to main menu
                     break;
@@ -58,14 +86,13 @@ public class ManageRentals {
      * Check whether a given value exists in table.column.
      */
     private static boolean existsById(String tableName, String columnName, String value) {
-        Connection conn = SQL.getConnection();
+        Connection conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return false;
         }
 
-        String sql = "SELECT 1 FROM " + tableName + " WHERE " + columnName + " = ? LIMIT 1;";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (PreparedStatement ps = conn.prepareStatement(existsSql(tableName, columnName))) {
             ps.setString(1, value);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next();
@@ -123,6 +150,35 @@ public class ManageRentals {
         return date;
     }
 
+    /*
+     * SQL used by the options above (also checked by tools.QueryPlanCheck)
+     */
+
+    public static String existsSql(String tableName, String columnName) {
+        return "SELECT 1 FROM " + tableName + " WHERE " + columnName + " = ? LIMIT 1;";
+    }
+
+    public static String selectReturnDateSql(String rentalTable) {
+        return "SELECT return_date FROM " + rentalTable + " WHERE rental_id = ?;";
+    }
+
+    public static String recordReturnSql(String rentalTable) {
+        return "UPDATE " + rentalTable + " SET return_date = ? WHERE rental_id = ?;";
+    }
+
+    /**
+     * Current return_date of a rental (null if not yet returned).
+     */
+    private static String selectReturnDate(Connection conn, String rentalTable, String rentalId)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(selectReturnDateSql(rentalTable))) {
+            ps.setString(1, rentalId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
     /*
      *  Option 2: Record a return
      */
@@ -162,12 +218,24 @@ public class ManageRentals {
             return;
         }
 
-        String sql = "UPDATE " + rentalTable + " SET return_date = ? WHERE rental_id = ?;";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, returnDate);
-            ps.setString(2, rentalId);
-            int rows = ps.executeUpdate();
+        try {
+            // Read the old date and set the new one in one write transaction
+            String[] previous = new String[1];
+            int rows = WritePolicy.execute(conn, c -> {
+                previous[0] = selectReturnDate(c, rentalTable, rentalId);
+                try (PreparedStatement ps = c.prepareStatement(recordReturnSql(rentalTable))) {
+                    ps.setString(1, returnDate);
+                    ps.setString(2, rentalId);
+                    return ps.executeUpdate();
+                }
+            });
             if (rows > 0) {
+                ChangeLog.record(ChangeLog.UPDATE, rentalTable, "rental_id=" + rentalId,
+                        Collections.singletonMap("return_date", previous[0]),
+                        Collections.singletonMap("return_date", returnDate));
+                if (returnDate != null) {
+                    Availability.returned(rentalId);
+                }
                 System.out.println("Return recorded for rental " + rentalId + ".");
             } else {
                 System.out.println("No rows updated. Please check the rental ID.");
@@ -212,6 +280,11 @@ public class ManageRentals {
             return; // canceled
         }
 
+        /*
+         * Suggest drones at the member's warehouse and a round-trip distance
+         */
+        String suggestedMiles = suggestDelivery(rentalId);
+
         /*
          * Get an existing drone_id
          */
@@ -230,8 +303,15 @@ public class ManageRentals {
          */
         String milesFlown = "";
         while (milesFlown.isEmpty()) {
-            System.out.print("Enter miles flown (DECIMAL 10,2) (or 'q' to cancel): ");
+            if (suggestedMiles != null) {
+                System.out.print("Enter miles flown (DECIMAL 10,2) [" + suggestedMiles + "] (or 'q' to cancel): ");
+            } else {
+                System.out.print("Enter miles flown (DECIMAL 10,2) (or 'q' to cancel): ");
+            }
             milesFlown = input.nextLine().trim();
+            if (milesFlown.isEmpty() && suggestedMiles != null) {
+                milesFlown = suggestedMiles;
+            }
 
             if (milesFlown.equalsIgnoreCase("q")) {
                 System.out.println("Canceled.");
@@ -261,6 +341,63 @@ public class ManageRentals {
         }
     }
 
+    /**
+     * Prints the member's warehouse and distance for a rental, and the drones
+     * housed there that can carry the rented equipment.
+     *
+     * @param rentalId the rental being scheduled
+     * @return the round-trip distance (twice the member's distance from
+     *         their warehouse) to offer as miles flown, or null if unknown
+     */
+    private static String suggestDelivery(String rentalId) {
+        Connection conn = SQL.getReadConnection();
+        if (conn == null) {
+            return null;
+        }
+        try {
+            ServiceArea.ensureIndexes(SQL.getConnection());
+
+            ResultTable route = ServiceArea.deliveryRoute(conn, rentalId);
+            if (route.isEmpty()) {
+                return null;
+            }
+            String[] r = route.getRows().get(0);
+            String wrhsAddress = r[2];
+            String distance = r[3];
+            String weight = r[5];
+            if (wrhsAddress == null) {
+                System.out.println("Member " + r[1] + " has no warehouse on record.");
+                return null;
+            }
+            System.out.println("Member " + r[1] + " is served by " + wrhsAddress
+                    + (distance != null ? " (" + distance + " miles away)." : "."));
+
+            ResultTable drones = ServiceArea.dronesFor(conn, wrhsAddress, weight);
+            if (drones.isEmpty() && weight != null) {
+                System.out.println("No drone at this warehouse can carry " + weight + "; all drones there:");
+                drones = ServiceArea.dronesFor(conn, wrhsAddress, null);
+            } else if (weight != null) {
+                System.out.println("Drones at this warehouse that can carry " + weight + ":");
+            } else {
+                System.out.println("Drones at this warehouse:");
+            }
+            if (drones.isEmpty()) {
+                System.out.println("(none)");
+            } else {
+                drones.print(System.out);
+            }
+
+            if (distance == null) {
+                return null;
+            }
+            return new BigDecimal(distance).multiply(BigDecimal.valueOf(2))
+                    .setScale(2, RoundingMode.HALF_UP).toPlainString();
+        } catch (SQLException | NumberFormatException e) {
+            System.out.println("Could not look up delivery route: " + e.getMessage());
+            return null;
+        }
+    }
+
     /*
      *  Option 4: Schedule a pickup
      */
@@ -324,4 +461,176 @@ public class ManageRentals {
             System.out.println("Error scheduling pickup: " + e.getMessage());
         }
     }
+
+    /*
+     *  Option 5: View rental details
+     */
+
+    /**
+     * Show one or more rentals with their member, equipment, drone
+     * assignments and reviews, loaded together by RentalDetails.
+     *
+     * @param input the input stream
+     */
+    private static void viewRentalDetails(Scanner input) {
+        Connection conn = SQL.getReadConnection();
+        if (conn == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        System.out.print("Enter rental ID(s), separated by commas (or 'q' to cancel): ");
+        String line = input.nextLine().trim();
+        if (line.equalsIgnoreCase("q") || line.isEmpty()) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        java.util.List<String> ids = new ArrayList<>();
+        for (String id : line.split(",")) {
+            if (!id.trim().isEmpty()) {
+                ids.add(id.trim());
+            }
+        }
+
+        Map<String, RentalDetails.Detail> details;
+        try {
+            details = RentalDetails.load(conn, ids);
+        } catch (SQLException e) {
+            System.out.println("Error loading rental details: " + e.getMessage());
+            return;
+        }
+        if (details.isEmpty()) {
+            System.out.println("No matching rentals.");
+            return;
+        }
+
+        for (Map.Entry<String, RentalDetails.Detail> e : details.entrySet()) {
+            RentalDetails.Detail d = e.getValue();
+            System.out.println("\n=== Rental " + e.getKey() + " ===");
+            printRow("Rental", d.rental);
+            printRow("Member", d.member);
+            printRow("Equipment", d.equipment);
+            printRows("Delivery", d.deliveries);
+            printRows("Return pickup", d.returns);
+            printRows("Review", d.reviews);
+        }
+    }
+
+    private static void printRow(String label, Map<String, String> row) {
+        if (row == null) {
+            System.out.println(label + ": (not found)");
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> col : row.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(col.getKey()).append("=").append(col.getValue());
+        }
+        System.out.println(label + ": " + sb);
+    }
+
+    private static void printRows(String label, java.util.List<Map<String, String>> rows) {
+        if (rows.isEmpty()) {
+            System.out.println(label + ": (none)");
+        }
+        for (Map<String, String> row : rows) {
+            printRow(label, row);
+        }
+    }
+
+    /*
+     *  Option 6: Members near a warehouse
+     */
+
+    /**
+     * List the members of a warehouse within a given distance of it,
+     * nearest first.
+     *
+     * @param input the input stream
+     */
+    private static void membersNearWarehouse(Scanner input) {
+        Connection conn = SQL.getReadConnection();
+        if (conn == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        String wrhsAddress = promptExistingId(
+                input,
+                "Enter warehouse address",
+                EntityDefinition.WAREHOUSE.getTableName(),
+                "wrhs_address"
+        );
+        if (wrhsAddress == null) {
+            return; // canceled
+        }
+
+        int radius = -1;
+        while (radius < 0) {
+            System.out.print("Enter distance in miles (or 'q' to cancel): ");
+            String line = input.nextLine().trim();
+            if (line.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return;
+            }
+            if (!line.matches("^\\d{1,9}$")) {
+                System.out.println("Please enter a whole number of miles.");
+                continue;
+            }
+            radius = Integer.parseInt(line);
+        }
+
+        try {
+            ServiceArea.ensureIndexes(SQL.getConnection());
+            ResultTable members = ServiceArea.membersWithin(conn, wrhsAddress, radius);
+            if (members.isEmpty()) {
+                System.out.println("No members within " + radius + " miles of " + wrhsAddress + ".");
+                return;
+            }
+            members.print(System.out);
+            System.out.println(members.getRowCount() + " member(s) within " + radius + " miles.");
+        } catch (SQLException e) {
+            System.out.println("Error finding members: " + e.getMessage());
+        }
+    }
+
+    /*
+     *  Option 7: Equipment available now
+     */
+
+    /**
+     * List equipment that is in service and not rented out, optionally for
+     * one warehouse and/or type, from the in-memory availability index.
+     *
+     * @param input the input stream
+     */
+    private static void findAvailableEquipment(Scanner input) {
+        System.out.print("Warehouse address (blank for any, 'q' to cancel): ");
+        String wrhsAddress = input.nextLine().trim();
+        if (wrhsAddress.equalsIgnoreCase("q")) {
+            System.out.println("Canceled.");
+            return;
+        }
+        System.out.print("Equipment type (blank for any, 'q' to cancel): ");
+        String type = input.nextLine().trim();
+        if (type.equalsIgnoreCase("q")) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        try {
+            ResultTable free = Availability.available(wrhsAddress, type);
+            if (free.isEmpty()) {
+                System.out.println("No matching equipment is available.");
+                return;
+            }
+            free.print(System.out);
+            System.out.println(free.getRowCount() + " available.");
+        } catch (SQLException e) {
+            System.out.println("Error finding available equipment: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package options;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Scanner;
+
+import sql.Archive;
+import sql.MemberSummary;
+import sql.ResultTable;
+import sql.SQL;
+
+public class MemberHistory {
+
+    /**
+     * Rentals shown per page of the timeline.
+     */
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * One page of a member's rentals, newest first, with the equipment and
+     * the member's latest rating of it. The optional cursor clause is
+     * inserted at the marker; each page starts after the last row of the
+     * previous one (keyset paging), so every page is a short range scan of
+     * the (member_id, checkout_date, rental_id) index however deep into the
+     * history it is. Rentals without a checkout date are left out.
+     */
+    public static final String TIMELINE_SQL =
+        "SELECT R.checkout_date, R.rental_id, R.equipment_id, E.type, E.manufacturer, " +
+        "    R.due_date, R.return_date, R.rental_fee, " +
+        "    (SELECT RV.rating FROM Rating_and_Review AS RV " +
+        "     WHERE RV.member_id = R.member_id AND RV.equipment_id = R.equipment_id " +
+        "     ORDER BY RV.date DESC LIMIT 1) AS rating " +
+        "FROM Rental_Transaction AS R " +
+        "LEFT JOIN Equipment AS E ON E.equipment_id = R.equipment_id " +
+        "WHERE R.member_id = ? AND R.checkout_date IS NOT NULL /*cursor*/" +
+        "ORDER BY R.checkout_date DESC, R.rental_id DESC " +
+        "LIMIT ?;";
+
+    public static final String CURSOR_CLAUSE = "AND (R.checkout_date, R.rental_id) < (?, ?) ";
+
+    /**
+     * A member's totals: one primary key lookup.
+     */
+    public static final String SUMMARY_SQL =
+        "SELECT member_id, rentals, open_rentals, ROUND(total_fees, 2) AS total_fees, last_activity " +
+        "FROM " + MemberSummary.TABLE + " WHERE member_id = ?;";
+
+    /**
+     * Report 10: a member's summary and full rental history, one page at a
+     * time.
+     *
+     * @param input the input stream
+     */
+    public static void runMemberHistory(Scanner input) {
+        System.out.println("\n=== Report 10: Member Rental History ===");
+
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        System.out.print("Enter member ID (or 'q' to cancel): ");
+        String memberId = input.nextLine().trim();
+        if (memberId.equalsIgnoreCase("q") || memberId.isEmpty()) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        try {
+            MemberSummary.ensure(conn);
+        } catch (SQLException e) {
+            System.out.println("Error preparing member summary: " + e.getMessage());
+            return;
+        }
+
+        Connection reader = SQL.getReadConnection();
+        if (reader == null) {
+            return;
+        }
+
+        /*
+         * Summary: one primary key lookup.
+         */
+        try (PreparedStatement ps = reader.prepareStatement(SUMMARY_SQL)) {
+            ps.setString(1, memberId);
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultTable summary = ResultTable.from(rs);
+                if (summary.isEmpty()) {
+                    System.out.println("No rentals for member " + memberId + ".");
+                    return;
+                }
+                System.out.println("\nSummary:");
+                summary.print(System.out);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error reading member summary: " + e.getMessage());
+            return;
+        }
+
+        /*
+         * Timeline, newest first.
+         */
+        String firstPageSql = Archive.spanning(TIMELINE_SQL.replace("/*cursor*/", ""), null);
+        String nextPageSql = Archive.spanning(TIMELINE_SQL.replace("/*cursor*/", CURSOR_CLAUSE), null);
+
+        String lastCheckout = null;
+        String lastRentalId = null;
+        int page = 1;
+        while (true) {
+            ResultTable rows;
+            try (PreparedStatement ps = reader.prepareStatement(lastCheckout == null ? firstPageSql : nextPageSql)) {
+                int i = 1;
+                ps.setString(i++, memberId);
+                if (lastCheckout != null) {
+                    ps.setString(i++, lastCheckout);
+                    ps.setString(i++, lastRentalId);
+                }
+                ps.setInt(i, PAGE_SIZE);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rows = ResultTable.from(rs);
+                }
+            } catch (SQLException e) {
+                System.out.println("Error reading rental history: " + e.getMessage());
+                return;
+            }
+
+            if (rows.isEmpty()) {
+                System.out.println(page == 1 ? "No dated rentals." : "End of history.");
+                return;
+            }
+            System.out.println("\nRentals, page " + page + ":");
+            rows.print(System.out);
+
+            if (rows.getRowCount() < PAGE_SIZE) {
+                System.out.println("End of history.");
+                return;
+            }
+            System.out.print("(n)ext page or (q)uit: ");
+            if (!input.nextLine().trim().toLowerCase().startsWith("n")) {
+                return;
+            }
+
+            // Next page starts after the last row shown
+            String[] last = rows.getRows().get(rows.getRowCount() - 1);
+            lastCheckout = last[0];
+            lastRentalId = last[1];
+            page++;
+        }
+    }
+}
@@ -3,7 +3,9 @@ package options;
 import java.sql.SQLException;
 import java.util.Scanner;
 
+import sql.Availability;
 import sql.SQL;
+import sql.SchemaRegistry;
 import utilities.Utilities;
 
 public class NewEntity {
@@ -34,9 +36,12 @@ public class NewEntity {
                 break; // user exit
             }
 
-            // Look up table name + attribute list from enum-backed Utilities
+            // Look up table name from the enum, columns from the live schema
             final String entityName = Utilities.getEntityNameFromIndex(type);
-            final String[] attributes = Utilities.getAttributesForType(type);
+            final SchemaRegistry.TableSchema schema =
+                    entityName == null ? null : SchemaRegistry.get(entityName);
+            final String[] attributes = schema != null
+                    ? schema.getColumnNames() : Utilities.getAttributesForType(type);
 
             /*
              * Safety net checks, unlikely to happen unless menu/index is invalid.
@@ -50,32 +55,96 @@ public class NewEntity {
             /*
              * Prompt the user for values for each column (attribute).
              * Keep them in an array that lines up with `attributes`.
+             * Key and NOT NULL columns are required; others may be left
+             * blank to store NULL.
              */
             String[] values = new String[attributes.length];
             for (int i = 0; i < attributes.length; i++) {
                 String attr = attributes[i];
+                SchemaRegistry.Column column = schema != null ? schema.getColumn(attr) : null;
+                boolean required = column == null || column.isRequired();
+
+                String prompt = "Enter " + attr;
+                if (column != null && !column.getType().isEmpty()) {
+                    prompt += " (" + column.getType() + (required ? "" : ", optional") + ")";
+                }
+
                 String value = "";
                 while (value.isEmpty()) {
-                    System.out.print("Enter " + attr + ": ");
+                    System.out.print(prompt + ": ");
                     value = input.nextLine().trim();
+                    if (value.isEmpty() && !required) {
+                        break;
+                    }
                     if (value.isEmpty()) {
                         System.out.println("Please enter a value.");
                     }
                 }
-                values[i] = value;
+                values[i] = value.isEmpty() ? null : value;
+            }
+
+            /*
+             * An open rental must not take equipment that is already out.
+             */
+            String reserved = null;
+            if (entityName.equalsIgnoreCase(Availability.RENTAL_TABLE)) {
+                String equipmentId = valueOf(attributes, values, "equipment_id");
+                if (equipmentId != null && valueOf(attributes, values, "return_date") == null) {
+                    try {
+                        Availability.Reservation r = Availability.reserve(equipmentId);
+                        if (r != Availability.Reservation.RESERVED) {
+                            System.out.println("Equipment " + equipmentId + " cannot be rented: "
+                                    + r.name().toLowerCase().replace('_', ' ') + ".");
+                            return;
+                        }
+                        reserved = equipmentId;
+                    } catch (SQLException e) {
+                        System.out.println("Error checking availability: " + e.getMessage());
+                        return;
+                    }
+                }
             }
 
             /*
              * Insert the row into the database using a prepared statement.
              */
             try {
-                SQL.insertRow(entityName, attributes, values);
-                System.out.println("Added new " + entityName + " record.");
+                if (reserved == null) {
+                    SQL.insertRow(entityName, attributes, values);
+                    System.out.println("Added new " + entityName + " record.");
+                } else {
+                    // Checked again by the database, in case another program rented it
+                    Availability.ensureIndex(SQL.getConnection());
+                    int rows = SQL.insertRowIf(entityName, attributes, values,
+                            Availability.NOT_RENTED_CONDITION, reserved);
+                    if (rows > 0) {
+                        Availability.rented(reserved, valueOf(attributes, values, "rental_id"));
+                        System.out.println("Added new " + entityName + " record.");
+                    } else {
+                        Availability.release(reserved);
+                        System.out.println("Equipment " + reserved + " cannot be rented: already rented.");
+                    }
+                }
             } catch (SQLException e) {
+                if (reserved != null) {
+                    Availability.release(reserved);
+                }
                 System.out.println("Error inserting new " + entityName + ": " + e.getMessage());
             }
 
             done = true;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Value entered for the named column, or null if blank or not present.
+     */
+    private static String valueOf(String[] attributes, String[] values, String column) {
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributes[i].equalsIgnoreCase(column)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+}
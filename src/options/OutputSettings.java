@@ -0,0 +1,62 @@
+package options;
+
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+import sql.ResultExporter;
+
+public class OutputSettings {
+
+    /**
+     * Output settings sub-menu. Chooses whether query results (reports,
+     * listings and searches) are printed or exported to files.
+     *
+     * @param input the input stream
+     */
+    public static void outputMenu(Scanner input) {
+        System.out.println("Current output: " + describeOutput());
+        System.out.println("Select an output destination:");
+        System.out.println("  (1): Console");
+        System.out.println("  (2): CSV file");
+        System.out.println("  (3): JSON Lines file");
+        System.out.println("  (4): Compressed CSV file (.csv.gz)");
+        System.out.println("  (0): Back to main menu");
+        System.out.print("> ");
+        String selection = input.nextLine().trim();
+
+        ResultExporter.Format format;
+        switch (selection) {
+            case "1":
+                ResultExporter.setDestination(null, null);
+                System.out.println("Results will be printed to the console.");
+                return;
+            case "2":
+                format = ResultExporter.Format.CSV;
+                break;
+            case "3":
+                format = ResultExporter.Format.JSON_LINES;
+                break;
+            case "4":
+                format = ResultExporter.Format.CSV_GZIP;
+                break;
+            case "0":
+                return;
+            default:
+                System.out.println("Invalid input.");
+                return;
+        }
+
+        System.out.print("Export directory (blank for '" + ResultExporter.getDirectory() + "'): ");
+        String dir = input.nextLine().trim();
+
+        ResultExporter.setDestination(format, dir.isEmpty() ? null : Paths.get(dir));
+        System.out.println("Results will be exported: " + describeOutput());
+    }
+
+    private static String describeOutput() {
+        if (!ResultExporter.isActive()) {
+            return "console";
+        }
+        return ResultExporter.getFormat() + " files in " + ResultExporter.getDirectory();
+    }
+}
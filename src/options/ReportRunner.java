@@ -0,0 +1,227 @@
+package options;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import sql.Archive;
+import sql.ResultExporter;
+import sql.SQL;
+
+public class ReportRunner {
+
+    /**
+     * Binds the parameters of one report's PreparedStatement.
+     */
+    private interface ParameterBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * One report to run: its name, SQL and parameter binding.
+     */
+    private static final class ReportTask {
+        final String name;
+        final String label;
+        final String sql;
+        final ParameterBinder binder;
+
+        ReportTask(String name, String label, String sql, ParameterBinder binder) {
+            this.name = name;
+            this.label = label;
+            this.sql = sql;
+            this.binder = binder;
+        }
+    }
+
+    /**
+     * Output and timing of one finished report.
+     */
+    private static final class ReportResult {
+        String output = "";
+        int rows = 0;
+        long millis = 0;
+        String error = null;
+    }
+
+    /**
+     * Runs reports 1-6 concurrently, one thread and one read-only connection
+     * each, then prints every report's results in order followed by
+     * per-report timings. Parameters for reports 1 and 6 are collected up
+     * front.
+     *
+     * The reports get their own threads rather than the shared query pool,
+     * which can have fewer workers than there are reports and would then
+     * run some of them one after another.
+     *
+     * @param input the input stream
+     */
+    public static void runAllReports(Scanner input) {
+        System.out.println("\n=== Run All Reports ===");
+
+        if (SQL.getConnection() == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        /*
+         * Collect parameters before anything runs.
+         */
+        System.out.print("Report 1 - enter member ID (or 'q' to cancel): ");
+        String memberId = input.nextLine().trim();
+        if (memberId.equalsIgnoreCase("q")) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        System.out.print("Report 6 - enter equipment type (or 'q' to cancel): ");
+        String type = input.nextLine().trim();
+        if (type.equalsIgnoreCase("q")) {
+            System.out.println("Canceled.");
+            return;
+        }
+
+        Integer year = null;
+        while (year == null) {
+            System.out.print("Report 6 - enter cutoff year (e.g., 2020), or 'q' to cancel: ");
+            String inputYear = input.nextLine().trim();
+            if (inputYear.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return;
+            }
+            try {
+                year = Integer.parseInt(inputYear);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid year. Please enter a numeric value.");
+            }
+        }
+        final int cutoffYear = year;
+
+        /*
+         * Ranked reports run with no limit (-1) so the output matches
+         * stepping through each report individually.
+         */
+        java.util.List<ReportTask> tasks = new ArrayList<>();
+        tasks.add(new ReportTask("Report 1: Total Rentals by a Member", "report1",
+                Reports.REPORT1_SQL, ps -> ps.setString(1, memberId)));
+        tasks.add(new ReportTask("Report 2: Most Frequently Rented Equipment", "report2",
+                Reports.REPORT2_SQL, ps -> ps.setInt(1, -1)));
+        tasks.add(new ReportTask("Report 3: Most Frequent Equipment Manufacturer", "report3",
+                Reports.REPORT3_SQL, ps -> { }));
+        tasks.add(new ReportTask("Report 4: Drone Miles Flown", "report4",
+                Reports.REPORT4_SQL, ps -> ps.setInt(1, -1)));
+        tasks.add(new ReportTask("Report 5: Member with Most Items Rented", "report5",
+                Reports.REPORT5_SQL, ps -> ps.setInt(1, 1)));
+        tasks.add(new ReportTask("Report 6: Equipment by Type Released Before a Given Year", "report6",
+                Reports.REPORT6_SQL, ps -> {
+                    ps.setString(1, type);
+                    ps.setInt(2, cutoffYear);
+                }));
+
+        /*
+         * Start every report on its own thread, then wait for them all.
+         */
+        ExecutorService threads = Executors.newFixedThreadPool(tasks.size(), r -> {
+            Thread t = new Thread(r, "report-runner");
+            t.setDaemon(true);
+            return t;
+        });
+        long wallStart = System.nanoTime();
+        java.util.List<CompletableFuture<ReportResult>> futures = new ArrayList<>();
+        for (ReportTask task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(() -> runTask(task), threads));
+        }
+
+        java.util.List<ReportResult> results = new ArrayList<>();
+        for (CompletableFuture<ReportResult> f : futures) {
+            try {
+                results.add(f.join());
+            } catch (CompletionException e) {
+                ReportResult failed = new ReportResult();
+                failed.error = String.valueOf(e.getCause());
+                results.add(failed);
+            }
+        }
+        long wallMillis = (System.nanoTime() - wallStart) / 1_000_000;
+        threads.shutdown();
+
+        /*
+         * Print results in report order, then the timing summary.
+         */
+        long sumMillis = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            ReportResult r = results.get(i);
+            System.out.println("\n=== " + tasks.get(i).name + " ===");
+            if (r.error != null) {
+                System.out.println("Error running report: " + r.error);
+            } else {
+                System.out.print(r.output);
+            }
+            sumMillis += r.millis;
+        }
+
+        System.out.println("\nTimings:");
+        System.out.println("report,  rows,  ms");
+        for (int i = 0; i < tasks.size(); i++) {
+            ReportResult r = results.get(i);
+            System.out.println(tasks.get(i).label + ",  "
+                    + (r.error != null ? "error" : String.valueOf(r.rows)) + ",  " + r.millis);
+        }
+        System.out.println("Wall clock: " + wallMillis + " ms (sum of reports: " + sumMillis + " ms, "
+                + tasks.size() + " threads)");
+    }
+
+    /**
+     * Runs one report on a read-only connection of its own, closed when the
+     * report finishes.
+     */
+    private static ReportResult runTask(ReportTask task) {
+        try (Connection conn = SQL.openReadConnection()) {
+            return runTask(task, conn);
+        } catch (SQLException e) {
+            ReportResult failed = new ReportResult();
+            failed.error = e.getMessage();
+            return failed;
+        }
+    }
+
+    /**
+     * Runs one report on the given read-only connection, capturing its
+     * console output (or exporting it when an export format is selected).
+     */
+    private static ReportResult runTask(ReportTask task, Connection conn) {
+        ReportResult result = new ReportResult();
+        long start = System.nanoTime();
+
+        try (PreparedStatement ps = conn.prepareStatement(Archive.spanning(task.sql, null))) {
+            task.binder.bind(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (ResultExporter.isActive()) {
+                    result.rows = ResultExporter.export(rs, task.label);
+                    result.output = "Exported " + result.rows + " row(s).\n";
+                } else {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+                    result.rows = SQL.printResultSet(rs, out);
+                    out.flush();
+                    result.output = buffer.toString(StandardCharsets.UTF_8);
+                }
+            }
+        } catch (SQLException e) {
+            result.error = e.getMessage();
+        }
+
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+}
@@ -5,10 +5,83 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Scanner;
 
+import sql.AnalyticsSnapshot;
+import sql.Archive;
+import sql.ResultTable;
 import sql.SQL;
 
 public class Reports {
 
+    /*
+     * Report 1: Total Rentals by a Member
+     */
+    public static final String REPORT1_SQL =
+        "SELECT M.member_id, M.f_name, M.l_name, COUNT(R.rental_id) AS Rentals " +
+        "FROM Community_Member AS M " +
+        "LEFT JOIN Rental_Transaction AS R ON R.member_id = M.member_id " +
+        "WHERE M.member_id = ? " +
+        "GROUP BY M.member_id;";
+
+    /*
+     * Report 2: Equipment ranked by times rented (LIMIT ? = top K, -1 for all)
+     */
+    public static final String REPORT2_SQL =
+        "SELECT " +
+        "    E.equipment_ID, " +
+        "    E.manufacturer, " +
+        "    COUNT(RT.equipment_ID) AS total_times_rented " +
+        "FROM Equipment AS E " +
+        "LEFT JOIN Rental_Transaction AS RT " +
+        "    ON E.equipment_ID = RT.equipment_ID " +
+        "GROUP BY E.equipment_ID, E.manufacturer " +
+        "ORDER BY total_times_rented DESC " +
+        "LIMIT ?;";
+
+    /*
+     * Report 3: Most Frequent Equipment Manufacturer
+     */
+    public static final String REPORT3_SQL =
+        "SELECT manufacturer " +
+        "FROM (" +
+        "    SELECT E.manufacturer, COUNT(RT.equipment_id) AS rented_count " +
+        "    FROM Equipment AS E " +
+        "    JOIN Rental_Transaction AS RT ON E.equipment_id = RT.equipment_id " +
+        "    GROUP BY E.manufacturer " +
+        "    ORDER BY rented_count DESC" +
+        ") " +
+        "LIMIT 1;";
+
+    /*
+     * Report 4: Total Miles Flown by Drone (LIMIT ? = top K, -1 for all)
+     */
+    public static final String REPORT4_SQL =
+        "SELECT D.drone_ID, D.manufacturer, SUM(DD.miles_flown) AS total_miles_flown " +
+        "FROM Drone AS D " +
+        "JOIN Drone_Performs_Delivery AS DD ON D.drone_ID = DD.drone_ID " +
+        "GROUP BY D.drone_ID, D.manufacturer " +
+        "ORDER BY total_miles_flown DESC " +
+        "LIMIT ?;";
+
+    /*
+     * Report 5: Members with Most Items Rented (LIMIT ? = top K)
+     */
+    public static final String REPORT5_SQL =
+        "SELECT M.member_id, M.f_name, M.l_name, COUNT(R.rental_id) AS Rentals " +
+        "FROM Community_Member AS M " +
+        "JOIN Rental_Transaction AS R ON R.member_id = M.member_id " +
+        "GROUP BY R.member_id " +
+        "ORDER BY COUNT(R.rental_id) DESC " +
+        "LIMIT ?;";
+
+    /*
+     * Report 6: Equipment by Type Released Before a Given Year
+     */
+    public static final String REPORT6_SQL =
+        "SELECT equipment_id, type, manufacturer, year " +
+        "FROM Equipment " +
+        "WHERE type = ? " +
+        "AND year < ?;";
+
     /**
      * Top-level Reports menu.
      *
@@ -39,6 +112,20 @@ public class Reports {
                 case "6":
                     runReport6(input);
                     break;
+                case "7":
+                    TimeSeriesReports.runTimeSeriesReport(input);
+                    break;
+                case "8":
+                    AnalyticsSnapshot.setEnabled(!AnalyticsSnapshot.isEnabled());
+                    System.out.println("In-memory analytics snapshot is now "
+                            + (AnalyticsSnapshot.isEnabled() ? "on" : "off") + ".");
+                    break;
+                case "9":
+                    ReportRunner.runAllReports(input);
+                    break;
+                case "10":
+                    MemberHistory.runMemberHistory(input);
+                    break;
                 case "0":
                     System.out.println("Returning to main menu.");
                     break;
@@ -51,15 +138,81 @@ public class Reports {
     private static void printReportsMenu() {
         System.out.println("Select a report:");
         System.out.println("  (1): Total Rentals by a Member");
-        System.out.println("  (2): Most Popular Items");
+        System.out.println("  (2): Most Popular Items (top K)");
         System.out.println("  (3): Most Frequently Used Equipment Manufacturer");
-        System.out.println("  (4): Most Used Drone");
-        System.out.println("  (5): Member with Most Items Rented");
+        System.out.println("  (4): Most Used Drone (top K)");
+        System.out.println("  (5): Members with Most Items Rented (top K)");
         System.out.println("  (6): Equipment by Type Released Before a Given Year");
+        System.out.println("  (7): Activity Over Time (daily/weekly/monthly)");
+        System.out.println("  (8): Toggle in-memory analytics snapshot for reports 2-4 (now "
+                + (AnalyticsSnapshot.isEnabled() ? "on" : "off") + ")");
+        System.out.println("  (9): Run reports 1-6 concurrently with timings");
+        System.out.println("  (10): Member Rental History (summary and paged timeline)");
         System.out.println("  (0): Back to main menu");
         System.out.print("> ");
     }
 
+    /**
+     * Prompt for how many top results to show. Returns null if the user
+     * cancels.
+     *
+     * With ORDER BY ... LIMIT K, SQLite's sorter only keeps the best K rows
+     * instead of sorting the full ranking.
+     *
+     * @param input        the input stream
+     * @param what         label for the ranked rows (e.g. "drones")
+     * @param defaultValue value used for blank input; -1 means no limit
+     */
+    private static Integer promptTopK(Scanner input, String what, int defaultValue) {
+        while (true) {
+            System.out.print("Show top how many " + what + "? (blank for "
+                    + (defaultValue < 0 ? "all" : String.valueOf(defaultValue))
+                    + ", 'q' to cancel): ");
+            String line = input.nextLine().trim();
+            if (line.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return null;
+            }
+            if (line.isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                int k = Integer.parseInt(line);
+                if (k > 0) {
+                    return k;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            System.out.println("Please enter a positive whole number.");
+        }
+    }
+
+    /**
+     * Refreshes the in-memory snapshot from the read connection (archive
+     * and shards included) with rows added since the last run. Returns
+     * false (after printing the error) if the refresh failed.
+     */
+    private static boolean refreshSnapshot(Connection conn) {
+        try {
+            int loaded = AnalyticsSnapshot.refresh(conn);
+            System.out.println("Snapshot refreshed (" + loaded + " new row(s)).");
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error refreshing snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Prints rows computed from the in-memory snapshot in the same layout as
+     * SQL query results.
+     */
+    private static void printSnapshotRows(String[] header, java.util.List<String[]> rows) {
+        System.out.println("\nResults (from snapshot):");
+        new ResultTable(header, rows).print(System.out);
+    }
+
     /*
      * Report 1: Total Rentals by a Member
      */
@@ -74,24 +227,17 @@ public class Reports {
             return;
         }
 
-        Connection conn = SQL.getConnection();
+        Connection conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
-        String sql =
-            "SELECT M.member_id, M.f_name, M.l_name, COUNT(R.rental_id) AS Rentals " +
-            "FROM Community_Member AS M " +
-            "LEFT JOIN Rental_Transaction AS R ON R.member_id = M.member_id " +
-            "WHERE M.member_id = ? " +
-            "GROUP BY M.member_id;";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (PreparedStatement ps = conn.prepareStatement(Archive.spanning(REPORT1_SQL, null))) {
             ps.setString(1, memberId);
 
             System.out.println("\nResults:");
-            SQL.sqlQuery(ps);
+            SQL.sqlQuery(ps, "report1");
 
         } catch (SQLException e) {
             System.out.println("Error running report: " + e.getMessage());
@@ -104,26 +250,29 @@ public class Reports {
 private static void runReport2(Scanner input) {
     System.out.println("\n=== Report 2: Most Frequently Rented Equipment ===");
 
-    Connection conn = SQL.getConnection();
+    Connection conn = SQL.getReadConnection();
     if (conn == null) {
         System.out.println("Database not initialized.");
         return;
     }
 
-    String sql =
-        "SELECT " +
-        "    E.equipment_ID, " +
-        "    E.manufacturer, " +
-        "    COUNT(RT.equipment_ID) AS total_times_rented " +
-        "FROM Equipment AS E " +
-        "LEFT JOIN Rental_Transaction AS RT " +
-        "    ON E.equipment_ID = RT.equipment_ID " +
-        "GROUP BY E.equipment_ID, E.manufacturer " +
-        "ORDER BY total_times_rented DESC;";
+    Integer k = promptTopK(input, "items", -1);
+    if (k == null) {
+        return;
+    }
 
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    if (AnalyticsSnapshot.isEnabled()) {
+        if (refreshSnapshot(conn)) {
+            printSnapshotRows(new String[] { "equipment_id", "manufacturer", "total_times_rented" },
+                    AnalyticsSnapshot.equipmentRentalCounts(k));
+        }
+        return;
+    }
+
+    try (PreparedStatement ps = conn.prepareStatement(Archive.spanning(REPORT2_SQL, null))) {
+        ps.setInt(1, k);
         System.out.println("\nResults:");
-        SQL.sqlQuery(ps);
+        SQL.sqlQuery(ps, "report2");
     } catch (SQLException e) {
         System.out.println("Error running report: " + e.getMessage());
     }
@@ -135,26 +284,22 @@ private static void runReport2(Scanner input) {
     private static void runReport3(Scanner input) {
         System.out.println("\n=== Report 3: Most Frequent Equipment Manufacturer ===");
 
-        Connection conn = SQL.getConnection();
+        Connection conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
-        String sql =
-            "SELECT manufacturer " +
-            "FROM (" +
-            "    SELECT E.manufacturer, COUNT(RT.equipment_id) AS rented_count " +
-            "    FROM Equipment AS E " +
-            "    JOIN Rental_Transaction AS RT ON E.equipment_id = RT.equipment_id " +
-            "    GROUP BY E.manufacturer " +
-            "    ORDER BY rented_count DESC" +
-            ") " +
-            "LIMIT 1;";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        if (AnalyticsSnapshot.isEnabled()) {
+            if (refreshSnapshot(conn)) {
+                printSnapshotRows(new String[] { "manufacturer" }, AnalyticsSnapshot.topManufacturer());
+            }
+            return;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(Archive.spanning(REPORT3_SQL, null))) {
             System.out.println("\nResults:");
-            SQL.sqlQuery(ps);
+            SQL.sqlQuery(ps, "report3");
         } catch (SQLException e) {
             System.out.println("Error running report: " + e.getMessage());
         }
@@ -166,22 +311,29 @@ private static void runReport2(Scanner input) {
     private static void runReport4(Scanner input) {
         System.out.println("\n=== Report 4: Drone Miles Flown ===");
 
-        Connection conn = SQL.getConnection();
+        Connection conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
-        String sql =
-            "SELECT D.drone_ID, D.manufacturer, SUM(DD.miles_flown) AS total_miles_flown " +
-            "FROM Drone AS D " +
-            "JOIN Drone_Performs_Delivery AS DD ON D.drone_ID = DD.drone_ID " +
-            "GROUP BY D.drone_ID, D.manufacturer " +
-            "ORDER BY total_miles_flown DESC;";
+        Integer k = promptTopK(input, "drones", -1);
+        if (k == null) {
+            return;
+        }
+
+        if (AnalyticsSnapshot.isEnabled()) {
+            if (refreshSnapshot(conn)) {
+                printSnapshotRows(new String[] { "drone_id", "manufacturer", "total_miles_flown" },
+                        AnalyticsSnapshot.droneMiles(k));
+            }
+            return;
+        }
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (PreparedStatement ps = conn.prepareStatement(REPORT4_SQL)) {
+            ps.setInt(1, k);
             System.out.println("\nResults:");
-            SQL.sqlQuery(ps);
+            SQL.sqlQuery(ps, "report4");
         } catch (SQLException e) {
             System.out.println("Error running report: " + e.getMessage());
         }
@@ -193,23 +345,21 @@ private static void runReport2(Scanner input) {
     private static void runReport5(Scanner input) {
         System.out.println("\n=== Report 5: Member with Most Items Rented ===");
 
-        var conn = SQL.getConnection();
+        var conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
-        String sql =
-            "SELECT M.member_id, M.f_name, M.l_name, COUNT(R.rental_id) AS Rentals " +
-            "FROM Community_Member AS M " +
-            "JOIN Rental_Transaction AS R ON R.member_id = M.member_id " +
-            "GROUP BY R.member_id " +
-            "ORDER BY COUNT(R.rental_id) DESC " +
-            "LIMIT 1;";
+        Integer k = promptTopK(input, "members", 1);
+        if (k == null) {
+            return;
+        }
 
-        try (var ps = conn.prepareStatement(sql)) {
+        try (var ps = conn.prepareStatement(Archive.spanning(REPORT5_SQL, null))) {
+            ps.setInt(1, k);
             System.out.println("\nResults:");
-            SQL.sqlQuery(ps);
+            SQL.sqlQuery(ps, "report5");
         } catch (Exception e) {
             System.out.println("Error running report: " + e.getMessage());
         }
@@ -221,7 +371,7 @@ private static void runReport2(Scanner input) {
     private static void runReport6(Scanner input) {
         System.out.println("\n=== Report 6: Equipment by Type Released Before a Given Year ===");
 
-        var conn = SQL.getConnection();
+        var conn = SQL.getReadConnection();
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
@@ -251,18 +401,12 @@ private static void runReport2(Scanner input) {
             }
         }
 
-        String sql =
-            "SELECT equipment_id, type, manufacturer, year " +
-            "FROM Equipment " +
-            "WHERE type = ? " +
-            "AND year < ?;";
-
-        try (var ps = conn.prepareStatement(sql)) {
+        try (var ps = conn.prepareStatement(REPORT6_SQL)) {
             ps.setString(1, type);
             ps.setInt(2, year);
 
             System.out.println("\nResults:");
-            SQL.sqlQuery(ps);
+            SQL.sqlQuery(ps, "report6");
 
         } catch (Exception e) {
             System.out.println("Error running report: " + e.getMessage());
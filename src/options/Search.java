@@ -1,20 +1,33 @@
 package options;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import sql.Archive;
+import sql.AsyncQueries;
+import sql.MatchRenderer;
+import sql.ResultExporter;
+import sql.ResultTable;
 import sql.SQL;
+import sql.SchemaRegistry;
+import sql.TrigramIndex;
 import utilities.EntityDefinition;
 import utilities.Utilities;
 
 public class Search {
 
+    /**
+     * Rows shown per entity by a fuzzy search.
+     */
+    private static final int FUZZY_LIMIT = 20;
+
     /**
      * Search option: by entity (or all) and substring across any attribute value.
      *
@@ -22,8 +35,7 @@ public class Search {
      */
     public static void search(Scanner input) {
 
-        Connection conn = SQL.getConnection();
-        if (conn == null) {
+        if (SQL.getConnection() == null) {
             System.out.println("Database not initialized.");
             return;
         }
@@ -95,88 +107,151 @@ public class Search {
             return;
         }
 
+        /*
+         * Names, emails, phones and addresses can also be matched fuzzily.
+         */
+        boolean anyIndexed = false;
+        for (EntityDefinition def : entitiesToSearch) {
+            anyIndexed |= TrigramIndex.isIndexed(def.getTableName());
+        }
+        if (anyIndexed) {
+            System.out.print("Match (e)xact substring or (f)uzzy / prefix? [e]: ");
+            if (input.nextLine().trim().toLowerCase().startsWith("f")) {
+                fuzzySearch(entitiesToSearch, q);
+                return;
+            }
+        }
+
         String likePattern = "%" + q + "%";
 
+        // Archived history is only searched when asked for.
+        boolean includeArchive = false;
+        if (Archive.getArchivedThrough() != null) {
+            System.out.print("Include rentals and reviews archived before "
+                    + Archive.getArchivedThrough() + "? (y/n): ");
+            includeArchive = input.nextLine().trim().toLowerCase().startsWith("y");
+        }
+
         /*
-         * Search for matches and output where they came from.
+         * Exports of every entity start at once, each on an AsyncQueries
+         * worker with its own read connection. Matches shown on screen are
+         * streamed one entity at a time, so they stay in entity order.
          */
+        boolean exporting = ResultExporter.isActive();
+        boolean highlight = System.console() != null;
+        MatchRenderer renderer = new MatchRenderer(q, highlight, System.out);
+        List<String> searchedTables = new ArrayList<>();
+        List<CompletableFuture<Integer>> exported = new ArrayList<>();
         int totalMatches = 0;
 
         for (EntityDefinition def : entitiesToSearch) {
             String tableName = def.getTableName();
-            String[] attributes = def.getAttributes();
+            String[] attributes = SchemaRegistry.columnsFor(def);
 
             if (attributes == null || attributes.length == 0) {
                 continue;
             }
 
-            // Build: SELECT * FROM tableName WHERE col1 LIKE ? OR col2 LIKE ? OR ...
-            StringBuilder sb = new StringBuilder();
-            sb.append("SELECT * FROM ").append(tableName).append(" WHERE ");
+            String sql = includeArchive
+                    ? Archive.spanning(likeSql(tableName, attributes), null) : likeSql(tableName, attributes);
 
-            for (int i = 0; i < attributes.length; i++) {
-                sb.append(attributes[i]).append(" LIKE ?");
-                if (i < attributes.length - 1) {
-                    sb.append(" OR ");
-                }
-            }
-            sb.append(";");
-
-            String sql = sb.toString();
+            // Bind the same pattern for every column
+            Object[] params = new Object[attributes.length];
+            Arrays.fill(params, likePattern);
 
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                // Bind the same pattern for every column
-                for (int i = 0; i < attributes.length; i++) {
-                    ps.setString(i + 1, likePattern);
+            if (exporting) {
+                searchedTables.add(tableName);
+                // Stream this entity's matches to its own export file
+                exported.add(AsyncQueries.submit(c -> {
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        for (int i = 0; i < params.length; i++) {
+                            ps.setObject(i + 1, params[i]);
+                        }
+                        try (ResultSet rs = ps.executeQuery()) {
+                            return ResultExporter.export(rs, tableName);
+                        }
+                    }
+                }));
+            } else {
+                // Stream this entity's matches, highlighted, from the raw bytes
+                String heading = (totalMatches == 0 ? "Matches:\n" : "") + "[" + tableName + "]";
+                try {
+                    totalMatches += AsyncQueries.submit(c -> {
+                        try (PreparedStatement ps = c.prepareStatement(sql)) {
+                            for (int i = 0; i < params.length; i++) {
+                                ps.setObject(i + 1, params[i]);
+                            }
+                            try (ResultSet rs = ps.executeQuery()) {
+                                return renderer.render(rs, heading);
+                            }
+                        }
+                    }).join();
+                } catch (CompletionException e) {
+                    System.out.println("Error searching " + tableName + ": " + e.getCause().getMessage());
                 }
+            }
+        }
 
-                try (ResultSet rs = ps.executeQuery()) {
-                    ResultSetMetaData rsmd = rs.getMetaData();
-                    int columnCount = rsmd.getColumnCount();
-                    boolean hasRowsForThisEntity = false;
+        /*
+         * Wait for the exports, in entity order.
+         */
+        for (int t = 0; t < exported.size(); t++) {
+            try {
+                totalMatches += exported.get(t).join();
+            } catch (CompletionException e) {
+                System.out.println("Error searching " + searchedTables.get(t) + ": " + e.getCause().getMessage());
+            }
+        }
 
-                    while (rs.next()) {
-                        if (!hasRowsForThisEntity) {
-                            // First time we see a row for this entity
-                            if (totalMatches == 0) {
-                                System.out.println("Matches:");
-                            }
-                            System.out.println("[" + tableName + "]");
-
-                            // Print header
-                            for (int i = 1; i <= columnCount; i++) {
-                                String colName = rsmd.getColumnName(i);
-                                System.out.print(colName);
-                                if (i < columnCount) {
-                                    System.out.print(",  ");
-                                }
-                            }
-                            System.out.print("\n");
+        if (totalMatches == 0) {
+            System.out.println("No matches.");
+        }
+    }
 
-                            hasRowsForThisEntity = true;
-                        }
+    /**
+     * SELECT * FROM tableName WHERE col1 LIKE ? OR col2 LIKE ? OR ...
+     */
+    public static String likeSql(String tableName, String[] attributes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT * FROM ").append(tableName).append(" WHERE ");
 
-                        // Print row
-                        for (int i = 1; i <= columnCount; i++) {
-                            String columnValue = rs.getString(i);
-                            System.out.print(columnValue);
-                            if (i < columnCount) {
-                                System.out.print(",  ");
-                            }
-                        }
-                        System.out.print("\n");
+        for (int i = 0; i < attributes.length; i++) {
+            sb.append(attributes[i]).append(" LIKE ?");
+            if (i < attributes.length - 1) {
+                sb.append(" OR ");
+            }
+        }
+        sb.append(";");
+        return sb.toString();
+    }
 
-                        totalMatches++;
-                    }
+    /**
+     * Ranked fuzzy and prefix matches from the trigram index, best first,
+     * for each searched entity that has one.
+     */
+    private static void fuzzySearch(List<EntityDefinition> entities, String q) {
+        int shown = 0;
+        for (EntityDefinition def : entities) {
+            String tableName = def.getTableName();
+            if (!TrigramIndex.isIndexed(tableName)) {
+                continue;
+            }
+            try {
+                ResultTable matches = TrigramIndex.search(tableName, q, FUZZY_LIMIT);
+                if (matches.isEmpty()) {
+                    continue;
                 }
-
+                if (shown == 0) {
+                    System.out.println("Closest matches:");
+                }
+                System.out.println("[" + tableName + "]");
+                shown += matches.print(System.out);
             } catch (SQLException e) {
                 System.out.println("Error searching " + tableName + ": " + e.getMessage());
             }
         }
-
-        if (totalMatches == 0) {
+        if (shown == 0) {
             System.out.println("No matches.");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,280 @@
+package options;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Scanner;
+
+import sql.Archive;
+import sql.SQL;
+import sql.WritePolicy;
+
+public class TimeSeriesReports {
+
+    /**
+     * Pre-aggregated daily partitions. One row per (metric, day) so bucketed
+     * reports read a few rows per day instead of the full history.
+     */
+    private static final String ROLLUP_TABLE = "Daily_Activity";
+
+    /*
+     * Metric keys stored in Daily_Activity.metric
+     */
+    public static final String METRIC_RENTALS = "rentals";
+    public static final String METRIC_MILES = "miles_flown";
+    public static final String METRIC_MAINT = "maint_cost";
+
+    /**
+     * Latest rolled-up day of a metric.
+     */
+    public static final String LATEST_DAY_SQL = "SELECT MAX(day) FROM " + ROLLUP_TABLE + " WHERE metric = ?;";
+
+    /**
+     * Report 7: activity over time, bucketed by day / week / month with a
+     * rolling average and the change from the previous bucket.
+     *
+     * @param input the input stream
+     */
+    public static void runTimeSeriesReport(Scanner input) {
+        System.out.println("\n=== Report 7: Activity Over Time ===");
+
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            System.out.println("Database not initialized.");
+            return;
+        }
+
+        // Prompt for metric
+        System.out.println("Select a metric:");
+        System.out.println("  (1): Rentals (count and total fees)");
+        System.out.println("  (2): Drone miles flown");
+        System.out.println("  (3): Maintenance cost");
+        System.out.print("> ");
+        String metric;
+        switch (input.nextLine().trim()) {
+            case "1":
+                metric = METRIC_RENTALS;
+                break;
+            case "2":
+                metric = METRIC_MILES;
+                break;
+            case "3":
+                metric = METRIC_MAINT;
+                break;
+            default:
+                System.out.println("Invalid input.");
+                return;
+        }
+
+        // Prompt for bucket size
+        System.out.print("Bucket by (d)ay, (w)eek or (m)onth: ");
+        String bucketExpr = bucketExpression(input.nextLine().trim().toLowerCase());
+        if (bucketExpr == null) {
+            System.out.println("Invalid input.");
+            return;
+        }
+
+        String startDate = promptDate(input, "Enter start date");
+        if (startDate == null) {
+            return;
+        }
+        String endDate = promptDate(input, "Enter end date");
+        if (endDate == null) {
+            return;
+        }
+
+        // Prompt for rolling window size (in buckets)
+        int window = 0;
+        while (window <= 0) {
+            System.out.print("Rolling window size in buckets (e.g., 3): ");
+            try {
+                window = Integer.parseInt(input.nextLine().trim());
+            } catch (NumberFormatException e) {
+                window = 0;
+            }
+            if (window <= 0) {
+                System.out.println("Please enter a positive whole number.");
+            }
+        }
+
+        System.out.print("Rebuild the daily rollup from scratch first? (y/n): ");
+        boolean rebuild = input.nextLine().trim().toLowerCase().startsWith("y");
+
+        try {
+            refreshRollup(conn, metric, rebuild);
+        } catch (SQLException e) {
+            System.out.println("Error refreshing daily rollup: " + e.getMessage());
+            return;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(reportSql(bucketExpr, window))) {
+            ps.setString(1, metric);
+            ps.setString(2, startDate);
+            ps.setString(3, endDate);
+
+            System.out.println("\nResults:");
+            SQL.sqlQuery(ps, "report7_" + metric);
+        } catch (SQLException e) {
+            System.out.println("Error running report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Report 7 over the daily rollup. Parameters: metric, start date, end
+     * date.
+     *
+     * @param bucketExpr a {@link #bucketExpression} result
+     * @param window     rolling window size in buckets, at least 1
+     */
+    public static String reportSql(String bucketExpr, int window) {
+        // The window frame must be a literal; window is a validated int.
+        return
+            "SELECT bucket, events, total, " +
+            "    ROUND(AVG(total) OVER (ORDER BY bucket " +
+            "        ROWS BETWEEN " + (window - 1) + " PRECEDING AND CURRENT ROW), 2) AS rolling_avg, " +
+            "    ROUND(total - LAG(total) OVER (ORDER BY bucket), 2) AS change_from_prev " +
+            "FROM (" +
+            "    SELECT " + bucketExpr + " AS bucket, SUM(events) AS events, " +
+            "        ROUND(SUM(total), 2) AS total " +
+            "    FROM " + ROLLUP_TABLE + " " +
+            "    WHERE metric = ? AND day BETWEEN ? AND ? " +
+            "    GROUP BY bucket" +
+            ") " +
+            "ORDER BY bucket;";
+    }
+
+    /**
+     * Maps a bucket choice to a SQL expression over Daily_Activity.day.
+     * Weeks start on Monday. Null if the choice is not recognized.
+     */
+    public static String bucketExpression(String choice) {
+        switch (choice) {
+            case "d":
+            case "day":
+                return "day";
+            case "w":
+            case "week":
+                return "date(day, '-6 days', 'weekday 1')";
+            case "m":
+            case "month":
+                return "strftime('%Y-%m', day)";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates the daily rollup table if it does not exist yet.
+     */
+    public static void ensureRollupTable(Connection conn) throws SQLException {
+        WritePolicy.execute(conn, c -> {
+            try (Statement stmt = c.createStatement()) {
+                return stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + ROLLUP_TABLE + " (" +
+                    "metric VARCHAR (20), day DATE, events INT, total DECIMAL (12, 2), " +
+                    "PRIMARY KEY (metric, day));");
+            }
+        });
+    }
+
+    /**
+     * Re-aggregates one metric's days from a date onward into the rollup.
+     * Parameters: metric, from date. Archived rentals are read only if the
+     * refresh reaches back before the archive cutoff (e.g. a full rebuild).
+     */
+    public static String rollupSql(String metric, String from) {
+        String sourceSql;
+        switch (metric) {
+            case METRIC_RENTALS:
+                sourceSql =
+                    "SELECT date(checkout_date) AS d, COUNT(*), COALESCE(SUM(rental_fee), 0) " +
+                    "FROM Rental_Transaction " +
+                    "WHERE checkout_date >= ? AND date(checkout_date) IS NOT NULL " +
+                    "GROUP BY d";
+                break;
+            case METRIC_MILES:
+                sourceSql =
+                    "SELECT date(RT.checkout_date) AS d, COUNT(*), COALESCE(SUM(DD.miles_flown), 0) " +
+                    "FROM Drone_Performs_Delivery AS DD " +
+                    "JOIN Rental_Transaction AS RT ON RT.rental_id = DD.rental_id " +
+                    "WHERE RT.checkout_date >= ? AND date(RT.checkout_date) IS NOT NULL " +
+                    "GROUP BY d";
+                break;
+            default:
+                sourceSql =
+                    "SELECT date(maint_date) AS d, COUNT(*), COALESCE(SUM(cost), 0) " +
+                    "FROM Maintenance_Record " +
+                    "WHERE maint_date >= ? AND date(maint_date) IS NOT NULL " +
+                    "GROUP BY d";
+        }
+        return
+            "INSERT OR REPLACE INTO " + ROLLUP_TABLE + " (metric, day, events, total) " +
+            "SELECT ?, * FROM (" + Archive.spanning(sourceSql, from) + ");";
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Prompt for a date in YYYY-MM-DD format. Returns null if the user cancels.
+     */
+    private static String promptDate(Scanner input, String label) {
+        while (true) {
+            System.out.print(label + " (YYYY-MM-DD) (or 'q' to cancel): ");
+            String date = input.nextLine().trim();
+            if (date.equalsIgnoreCase("q")) {
+                System.out.println("Canceled.");
+                return null;
+            }
+            if (date.matches("\\d{4}-\\d{2}-\\d{2}")) {
+                return date;
+            }
+            System.out.println("Please use YYYY-MM-DD format.");
+        }
+    }
+
+    /**
+     * Brings the daily rollup for one metric up to date.
+     *
+     * Days before the latest rolled-up day are treated as closed, so only the
+     * latest day and anything newer are re-aggregated. A full rebuild picks up
+     * back-dated inserts and edits to older rows. The refresh is one write
+     * transaction, so a rebuild never leaves the metric half empty.
+     */
+    public static void refreshRollup(Connection conn, String metric, boolean rebuild)
+            throws SQLException {
+        ensureRollupTable(conn);
+        int days = WritePolicy.execute(conn, c -> refreshDays(c, metric, rebuild));
+        System.out.println(days + " daily partition(s) refreshed for " + metric + ".");
+    }
+
+    private static int refreshDays(Connection conn, String metric, boolean rebuild) throws SQLException {
+        if (rebuild) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "DELETE FROM " + ROLLUP_TABLE + " WHERE metric = ?;")) {
+                ps.setString(1, metric);
+                ps.executeUpdate();
+            }
+        }
+
+        // Latest rolled-up day is the open partition; start there.
+        String from = "0000-00-00";
+        try (PreparedStatement ps = conn.prepareStatement(LATEST_DAY_SQL)) {
+            ps.setString(1, metric);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getString(1) != null) {
+                    from = rs.getString(1);
+                }
+            }
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(rollupSql(metric, from))) {
+            ps.setString(1, metric);
+            ps.setString(2, from);
+            return ps.executeUpdate();
+        }
+    }
+}
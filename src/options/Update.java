@@ -3,18 +3,28 @@ package options;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
+import sql.ChangeLog;
+import sql.ResultTable;
 import sql.SQL;
+import sql.SchemaRegistry;
+import sql.ShardRouter;
 import utilities.EntityDefinition;
 import utilities.Utilities;
 
 public class Update {
 
+    /**
+     * How many times a user may re-apply an edit or delete after finding
+     * that someone else changed the record first.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
     /**
      * Edit / delete option: choose entity, pick ID, then edit fields or delete.
      *
@@ -35,60 +45,65 @@ public class Update {
         }
 
         String tableName = def.getTableName();
-        String[] attributes = def.getAttributes();
+        String[] attributes = SchemaRegistry.columnsFor(def);
 
         if (attributes == null || attributes.length == 0) {
             System.out.println("No attributes defined for " + tableName + ".");
             return;
         }
 
-        // 2. Load records from DB with rowid so we can identify rows
-        List<Long> rowIds = new ArrayList<>();
+        // With warehouse sharding, pick the database that holds the record.
+        if (ShardRouter.isSharded(tableName)) {
+            conn = promptShardConnection(input, conn);
+            if (conn == null) {
+                // user canceled
+                return;
+            }
+        }
 
-        String selectSql = "SELECT rowid, * FROM " + tableName + ";";
+        // 2. Load records from DB with rowid so we can identify rows. The
+        // values shown are kept as each row's version: edits and deletes
+        // only apply if the row still has them.
+        ResultTable shown;
 
-        try (PreparedStatement ps = conn.prepareStatement(selectSql);
+        try (PreparedStatement ps = conn.prepareStatement(listSql(tableName));
              ResultSet rs = ps.executeQuery()) {
-
-            ResultSetMetaData rsmd = rs.getMetaData();
-            int columnCount = rsmd.getColumnCount(); // includes rowid as first column
-
-            int idx = 0;
-            while (rs.next()) {
-                long rowId = rs.getLong(1); // rowid
-                rowIds.add(rowId);
-
-                StringBuilder sb = new StringBuilder();
-                // Columns 2..columnCount are the actual table columns
-                for (int i = 2; i <= columnCount; i++) {
-                    String colName = rsmd.getColumnName(i);
-                    String val = rs.getString(i);
-                    sb.append(colName).append("=").append(val);
-                    if (i < columnCount) {
-                        sb.append(", ");
-                    }
-                }
-
-                System.out.println("[" + idx + "] " + sb.toString());
-                idx++;
-            }
+            // Held dictionary-encoded: repeated values are stored once
+            shown = ResultTable.from(rs);
         } catch (SQLException e) {
             System.out.println("Error loading records for " + tableName + ": " + e.getMessage());
             return;
         }
 
-        if (rowIds.isEmpty()) {
+        String[] shownColumns = shown.getColumns(); // rowid first
+        for (int idx = 0; idx < shown.getRowCount(); idx++) {
+            StringBuilder sb = new StringBuilder();
+            // Columns 1.. are the actual table columns
+            for (int i = 1; i < shownColumns.length; i++) {
+                sb.append(shownColumns[i]).append("=").append(shown.getValue(idx, i));
+                if (i < shownColumns.length - 1) {
+                    sb.append(", ");
+                }
+            }
+            System.out.println("[" + idx + "] " + sb.toString());
+        }
+
+        if (shown.isEmpty()) {
             System.out.println("No records for " + tableName + ".");
             return;
         }
 
         // 3. Prompt user to pick a record index
-        Integer recIndex = promptRecordIndex(input, rowIds.size());
+        Integer recIndex = promptRecordIndex(input, shown.getRowCount());
         if (recIndex == null) {
             // user canceled
             return;
         }
-        long targetRowId = rowIds.get(recIndex);
+        long targetRowId = Long.parseLong(shown.getValue(recIndex, 0));
+        Map<String, String> shownRow = new LinkedHashMap<>();
+        for (int i = 1; i < shownColumns.length; i++) {
+            shownRow.put(shownColumns[i], shown.getValue(recIndex, i));
+        }
 
         // 4. Choose action: edit or delete
         System.out.println("Select an action:");
@@ -99,10 +114,10 @@ public class Update {
 
         switch (action) {
             case "1":
-                editRecord(input, conn, tableName, attributes, targetRowId);
+                editRecord(input, conn, tableName, attributes, targetRowId, shownRow);
                 break;
             case "2":
-                deleteRecord(conn, tableName, targetRowId);
+                deleteRecord(input, conn, tableName, targetRowId, shownRow);
                 break;
             default:
                 System.out.println("Invalid action.");
@@ -137,6 +152,43 @@ public class Update {
         }
     }
 
+    /**
+     * Prompt the user to choose the main database or one warehouse shard.
+     * Returns null if the user cancels.
+     */
+    private static Connection promptShardConnection(Scanner input, Connection mainConn) {
+        List<String> warehouses;
+        try {
+            warehouses = ShardRouter.warehouses(mainConn);
+        } catch (SQLException e) {
+            System.out.println("Error loading warehouse shards: " + e.getMessage());
+            return null;
+        }
+        if (warehouses.isEmpty()) {
+            return mainConn;
+        }
+
+        System.out.println("Select the warehouse that holds the record:");
+        System.out.println("  [0] Main database (rows created before sharding)");
+        for (int i = 0; i < warehouses.size(); i++) {
+            System.out.println("  [" + (i + 1) + "] " + warehouses.get(i));
+        }
+
+        Integer choice = promptRecordIndex(input, warehouses.size() + 1);
+        if (choice == null) {
+            return null;
+        }
+        if (choice == 0) {
+            return mainConn;
+        }
+        try {
+            return ShardRouter.connectionFor(mainConn, warehouses.get(choice - 1));
+        } catch (SQLException e) {
+            System.out.println("Error opening warehouse shard: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Prompt the user for a record index in [0, size-1]. Returns null if user
      * cancels.
@@ -167,10 +219,14 @@ public class Update {
 
     /**
      * Handle editing a single field in the selected record.
+     *
+     * The update only applies if the record still has the values that were
+     * shown; if another user changed it in the meantime, the differences are
+     * shown and the edit can be re-applied to the current version.
      */
     private static void editRecord(Scanner input, Connection conn,
                                    String tableName, String[] attributes,
-                                   long rowId) {
+                                   long rowId, Map<String, String> shownRow) {
         // Show available fields (columns)
         System.out.println("Available fields:");
         for (String attr : attributes) {
@@ -197,17 +253,25 @@ public class Update {
         System.out.print("New value for '" + field + "': ");
         String newVal = input.nextLine().trim();
 
-        String updateSql = "UPDATE " + tableName + " SET " + field + " = ? WHERE rowid = ?;";
-
-        try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
-            ps.setString(1, newVal);
-            ps.setLong(2, rowId);
+        try {
+            Map<String, String> expected = shownRow;
+            for (int attempt = 1; ; attempt++) {
+                int rows = SQL.updateIfUnchanged(conn, tableName, rowId, expected, field, newVal);
+                if (rows > 0) {
+                    ChangeLog.record(ChangeLog.UPDATE, tableName,
+                            SchemaRegistry.keyOf(tableName, expected, rowId),
+                            expected, SQL.selectRowById(conn, tableName, rowId));
+                    System.out.println("Record updated.");
+                    return;
+                }
 
-            int rows = ps.executeUpdate();
-            if (rows > 0) {
-                System.out.println("Record updated.");
-            } else {
-                System.out.println("No rows updated.");
+                Map<String, String> current = SQL.selectRowById(conn, tableName, rowId);
+                if (!resolveConflict(input, expected, current, attempt,
+                        "Set " + field + " = '" + newVal + "' on the current version?")) {
+                    System.out.println("No rows updated.");
+                    return;
+                }
+                expected = current;
             }
         } catch (SQLException e) {
             System.out.println("Error updating record: " + e.getMessage());
@@ -215,21 +279,75 @@ public class Update {
     }
 
     /**
-     * Handle deleting the selected record.
+     * Every row of a table with its rowid first, in primary key order (as
+     * in List).
      */
-    private static void deleteRecord(Connection conn, String tableName, long rowId) {
-        String deleteSql = "DELETE FROM " + tableName + " WHERE rowid = ?;";
-
-        try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
-            ps.setLong(1, rowId);
-            int rows = ps.executeUpdate();
-            if (rows > 0) {
-                System.out.println("Record deleted.");
-            } else {
-                System.out.println("No rows deleted.");
+    public static String listSql(String tableName) {
+        String sql = "SELECT rowid, * FROM " + tableName;
+        List<String> pk = SchemaRegistry.primaryKeyOf(tableName);
+        if (!pk.isEmpty()) {
+            sql += " ORDER BY " + String.join(", ", pk);
+        }
+        return sql + ";";
+    }
+
+    /**
+     * Handle deleting the selected record, only if it still has the values
+     * that were shown (see {@link #editRecord}).
+     */
+    private static void deleteRecord(Scanner input, Connection conn, String tableName,
+                                     long rowId, Map<String, String> shownRow) {
+        try {
+            Map<String, String> expected = shownRow;
+            for (int attempt = 1; ; attempt++) {
+                int rows = SQL.deleteIfUnchanged(conn, tableName, rowId, expected);
+                if (rows > 0) {
+                    ChangeLog.record(ChangeLog.DELETE, tableName,
+                            SchemaRegistry.keyOf(tableName, expected, rowId), expected, null);
+                    System.out.println("Record deleted.");
+                    return;
+                }
+
+                Map<String, String> current = SQL.selectRowById(conn, tableName, rowId);
+                if (!resolveConflict(input, expected, current, attempt, "Delete the current version?")) {
+                    System.out.println("No rows deleted.");
+                    return;
+                }
+                expected = current;
             }
         } catch (SQLException e) {
             System.out.println("Error deleting record: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reports a write conflict: the record was deleted, or which fields
+     * another user changed since it was read. Returns true if the user wants
+     * to retry against the current version.
+     */
+    private static boolean resolveConflict(Scanner input, Map<String, String> expected,
+                                           Map<String, String> current, int attempt,
+                                           String retryQuestion) {
+        if (current.isEmpty()) {
+            System.out.println("Conflict: the record was deleted by another user.");
+            return false;
+        }
+
+        System.out.println("Conflict: the record was changed by another user (attempt "
+                + attempt + " of " + MAX_ATTEMPTS + "):");
+        for (Map.Entry<String, String> e : current.entrySet()) {
+            String before = expected.get(e.getKey());
+            String now = e.getValue();
+            if (before == null ? now != null : !before.equals(now)) {
+                System.out.println("  " + e.getKey() + ": " + before + " -> " + now);
+            }
+        }
+
+        if (attempt >= MAX_ATTEMPTS) {
+            System.out.println("Giving up after " + MAX_ATTEMPTS + " attempts.");
+            return false;
+        }
+        System.out.print(retryQuestion + " (y/n): ");
+        return input.nextLine().trim().toLowerCase().startsWith("y");
+    }
+}
@@ -0,0 +1,473 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * In-process, column-oriented copy of the rental fact tables used by the
+ * analytical reports.
+ *
+ * Each table is held as primitive arrays (one per column) and repeated
+ * strings such as manufacturer and type are dictionary-encoded to int codes.
+ * Reports scan these arrays in parallel chunks instead of querying the
+ * database that dispatch is writing to.
+ *
+ * Rows are read from every copy of each table the read connection sees:
+ * main, the attached archive and each warehouse shard. The snapshot is
+ * refreshed incrementally by reading, from each copy, only rows whose rowid
+ * is greater than the last one loaded from it. It is rebuilt from scratch
+ * when a copy holds fewer rows up to that rowid than were loaded (a delete,
+ * or the high-water mark moving backwards), when a copy goes away, when
+ * the change log reports an edit or delete of one of the tables, and when
+ * archiving, a restore or a new shard changes the attached databases. An
+ * edit made by another program is not seen until one of those happens.
+ */
+public final class AnalyticsSnapshot {
+
+    /**
+     * Rows scanned per parallel task.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static boolean enabled = false;
+
+    /**
+     * Set when a loaded row may have changed; the next refresh rebuilds.
+     */
+    private static boolean stale = false;
+
+    /**
+     * Per table: schema (main, archive, shard_N) -> rows loaded from it.
+     */
+    private static Map<String, Map<String, Mark>> marks = new HashMap<>();
+
+    /*
+     * Dictionaries (shared by Equipment and Drone for manufacturer)
+     */
+    private static StringDictionary manufacturers = new StringDictionary();
+    private static StringDictionary types = new StringDictionary();
+
+    /*
+     * Rental_Transaction columns
+     */
+    private static IntColumn rentalEquipment = new IntColumn();
+
+    /*
+     * Drone_Performs_Delivery columns
+     */
+    private static IntColumn deliveryDrone = new IntColumn();
+    private static DoubleColumn deliveryMiles = new DoubleColumn();
+
+    /*
+     * Equipment columns, plus equipment_id -> row position
+     */
+    private static IntColumn equipmentId = new IntColumn();
+    private static IntColumn equipmentManufacturer = new IntColumn();
+    private static IntColumn equipmentType = new IntColumn();
+    private static Map<Integer, Integer> equipmentPos = new HashMap<>();
+
+    /*
+     * Drone columns, plus drone_id -> row position
+     */
+    private static IntColumn droneId = new IntColumn();
+    private static IntColumn droneManufacturer = new IntColumn();
+    private static Map<Integer, Integer> dronePos = new HashMap<>();
+
+    static {
+        ChangeLog.addListener(AnalyticsSnapshot::apply);
+    }
+
+    // Private constructor to prevent instantiation
+    private AnalyticsSnapshot() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns snapshot mode on or off. Turning it off releases the arrays.
+     */
+    public static synchronized void setEnabled(boolean on) {
+        enabled = on;
+        if (!on) {
+            clear();
+        }
+    }
+
+    /**
+     * Drops everything loaded so far; the next refresh reloads all rows.
+     */
+    public static synchronized void clear() {
+        stale = false;
+        marks = new HashMap<>();
+        manufacturers = new StringDictionary();
+        types = new StringDictionary();
+        rentalEquipment = new IntColumn();
+        deliveryDrone = new IntColumn();
+        deliveryMiles = new DoubleColumn();
+        equipmentId = new IntColumn();
+        equipmentManufacturer = new IntColumn();
+        equipmentType = new IntColumn();
+        equipmentPos = new HashMap<>();
+        droneId = new IntColumn();
+        droneManufacturer = new IntColumn();
+        dronePos = new HashMap<>();
+    }
+
+    /**
+     * Appends rows added since the last refresh, or reloads everything if
+     * rows already loaded have changed.
+     *
+     * @param conn the read connection (with the archive and shards attached)
+     * @return the number of rows loaded across all tables
+     */
+    public static synchronized int refresh(Connection conn) throws SQLException {
+        if (stale || !unchanged(conn)) {
+            clear();
+        }
+
+        int loaded = 0;
+        loaded += load(conn, "Rental_Transaction", "equipment_id", rs -> rentalEquipment.add(rs.getInt(2)));
+        loaded += load(conn, "Drone_Performs_Delivery", "drone_id, miles_flown", rs -> {
+            deliveryDrone.add(rs.getInt(2));
+            deliveryMiles.add(rs.getDouble(3));
+        });
+        loaded += load(conn, "Equipment", "equipment_id, manufacturer, type", rs -> {
+            equipmentPos.put(rs.getInt(2), equipmentId.size());
+            equipmentId.add(rs.getInt(2));
+            equipmentManufacturer.add(manufacturers.encode(rs.getString(3)));
+            equipmentType.add(types.encode(rs.getString(4)));
+        });
+        loaded += load(conn, "Drone", "drone_id, manufacturer", rs -> {
+            dronePos.put(rs.getInt(2), droneId.size());
+            droneId.add(rs.getInt(2));
+            droneManufacturer.add(manufacturers.encode(rs.getString(3)));
+        });
+        return loaded;
+    }
+
+    /*
+     * Aggregations
+     */
+
+    /**
+     * Report 2: times rented per equipment item, highest first.
+     * Columns: equipment_id, manufacturer, total_times_rented.
+     *
+     * @param k maximum number of rows to return; negative for all
+     */
+    public static synchronized List<String[]> equipmentRentalCounts(int k) {
+        long[] counts = countRentalsPerEquipment();
+        List<String[]> rows = new ArrayList<>();
+        for (int pos : topK(counts, k)) {
+            rows.add(new String[] {
+                String.valueOf(equipmentId.get(pos)),
+                manufacturers.decode(equipmentManufacturer.get(pos)),
+                String.valueOf(counts[pos])
+            });
+        }
+        return rows;
+    }
+
+    /**
+     * Report 3: the manufacturer whose equipment was rented most.
+     * Columns: manufacturer. Empty when there are no rentals.
+     */
+    public static synchronized List<String[]> topManufacturer() {
+        long[] perEquipment = countRentalsPerEquipment();
+        long[] perManufacturer = new long[manufacturers.size()];
+        for (int pos = 0; pos < perEquipment.length; pos++) {
+            perManufacturer[equipmentManufacturer.get(pos)] += perEquipment[pos];
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        for (int code : topK(perManufacturer, 1)) {
+            if (perManufacturer[code] > 0) {
+                rows.add(new String[] { manufacturers.decode(code) });
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Report 4: total miles flown per drone, highest first. Only drones
+     * with at least one delivery are returned.
+     * Columns: drone_id, manufacturer, total_miles_flown.
+     *
+     * @param k maximum number of rows to return; negative for all
+     */
+    public static synchronized List<String[]> droneMiles(int k) {
+        int droneCount = droneId.size();
+        int[] drones = deliveryDrone.data;
+        double[] miles = deliveryMiles.data;
+        int n = deliveryDrone.size();
+
+        // Map each delivery to a drone position once, then scan in parallel.
+        int[] positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            Integer pos = dronePos.get(drones[i]);
+            positions[i] = (pos == null) ? -1 : pos;
+        }
+
+        double[] totals = new double[droneCount];
+        long[] deliveries = new long[droneCount];
+        chunks(n).mapToObj(c -> {
+            double[] localTotals = new double[droneCount];
+            long[] localCounts = new long[droneCount];
+            int end = Math.min(n, c + CHUNK_SIZE);
+            for (int i = c; i < end; i++) {
+                int pos = positions[i];
+                if (pos >= 0) {
+                    localTotals[pos] += miles[i];
+                    localCounts[pos]++;
+                }
+            }
+            return new Object[] { localTotals, localCounts };
+        }).forEachOrdered(partial -> {
+            double[] t = (double[]) partial[0];
+            long[] cnt = (long[]) partial[1];
+            for (int i = 0; i < droneCount; i++) {
+                totals[i] += t[i];
+                deliveries[i] += cnt[i];
+            }
+        });
+
+        // Only drones with deliveries are ranked (inner join semantics).
+        // Rank on hundredths of a mile so the heap can use long keys.
+        int[] candidates = IntStream.range(0, droneCount).filter(i -> deliveries[i] > 0).toArray();
+        long[] keys = new long[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            keys[i] = Math.round(totals[candidates[i]] * 100);
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        for (int idx : topK(keys, k)) {
+            int pos = candidates[idx];
+            rows.add(new String[] {
+                String.valueOf(droneId.get(pos)),
+                manufacturers.decode(droneManufacturer.get(pos)),
+                String.format("%.2f", totals[pos])
+            });
+        }
+        return rows;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Takes one loaded row: rowid first, then the columns asked for.
+     */
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Rows loaded from one copy of a table.
+     */
+    private static final class Mark {
+        long lastRowId = 0;
+        long rows = 0;
+    }
+
+    /**
+     * Reads the rows of every copy of a table added since its last load.
+     */
+    private static int load(Connection conn, String table, String columns, RowReader reader)
+            throws SQLException {
+        Map<String, Mark> tableMarks = marks.computeIfAbsent(table, t -> new HashMap<>());
+        int loaded = 0;
+        for (String schema : schemas(conn, table)) {
+            Mark mark = tableMarks.computeIfAbsent(schema, s -> new Mark());
+            String sql = "SELECT rowid, " + columns + " FROM " + schema + "." + table
+                    + " WHERE rowid > ? ORDER BY rowid;";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setLong(1, mark.lastRowId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        mark.lastRowId = rs.getLong(1);
+                        mark.rows++;
+                        reader.read(rs);
+                        loaded++;
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns true if every copy loaded from is still attached and still
+     * holds as many rows up to the last rowid loaded as were loaded.
+     */
+    private static boolean unchanged(Connection conn) throws SQLException {
+        for (Map.Entry<String, Map<String, Mark>> table : marks.entrySet()) {
+            Set<String> attached = Set.copyOf(schemas(conn, table.getKey()));
+            for (Map.Entry<String, Mark> copy : table.getValue().entrySet()) {
+                if (!attached.contains(copy.getKey())) {
+                    return false;
+                }
+                String sql = "SELECT COUNT(*) FROM " + copy.getKey() + "." + table.getKey() + " WHERE rowid <= ?;";
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setLong(1, copy.getValue().lastRowId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next() || rs.getLong(1) != copy.getValue().rows) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Attached databases (main first, temp excluded) that have the table.
+     */
+    private static List<String> schemas(Connection conn, String table) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA database_list;")) {
+            while (rs.next()) {
+                if (!"temp".equals(rs.getString("name"))) {
+                    names.add(rs.getString("name"));
+                }
+            }
+        }
+        List<String> schemas = new ArrayList<>();
+        for (String schema : names) {
+            try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM " + schema
+                    + ".sqlite_master WHERE type = 'table' AND name = ? COLLATE NOCASE;")) {
+                ps.setString(1, table);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        schemas.add(schema);
+                    }
+                }
+            }
+        }
+        return schemas;
+    }
+
+    /**
+     * Change log listener: an edit or delete of a loaded table may change
+     * rows already loaded, so the next refresh rebuilds.
+     */
+    private static synchronized void apply(ChangeLog.Change change) {
+        if (change.operation.equals(ChangeLog.INSERT)) {
+            return;
+        }
+        for (String table : marks.keySet()) {
+            if (table.equalsIgnoreCase(change.table)) {
+                stale = true;
+            }
+        }
+    }
+
+    /**
+     * Counts rentals per equipment row position with a parallel scan.
+     */
+    private static long[] countRentalsPerEquipment() {
+        int equipmentCount = equipmentId.size();
+        int[] equipment = rentalEquipment.data;
+        int n = rentalEquipment.size();
+
+        int[] positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            Integer pos = equipmentPos.get(equipment[i]);
+            positions[i] = (pos == null) ? -1 : pos;
+        }
+
+        return chunks(n).mapToObj(c -> {
+            long[] local = new long[equipmentCount];
+            int end = Math.min(n, c + CHUNK_SIZE);
+            for (int i = c; i < end; i++) {
+                if (positions[i] >= 0) {
+                    local[positions[i]]++;
+                }
+            }
+            return local;
+        }).reduce(new long[equipmentCount], (a, b) -> {
+            long[] sum = Arrays.copyOf(a, a.length);
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += b[i];
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Start offsets of the CHUNK_SIZE chunks covering n rows, as a parallel
+     * stream.
+     */
+    private static IntStream chunks(int n) {
+        return IntStream.range(0, (n + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().map(i -> i * CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the positions of the k largest values, largest first, using a
+     * bounded min-heap. Ties keep the lower position first.
+     *
+     * @param k number of positions to return; negative for all
+     */
+    private static int[] topK(long[] values, int k) {
+        int limit = (k < 0 || k > values.length) ? values.length : k;
+        if (limit == 0) {
+            return new int[0];
+        }
+
+        // Heap root is the weakest of the current top-k.
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit, (a, b) ->
+                values[a] != values[b] ? Long.compare(values[a], values[b]) : Integer.compare(b, a));
+        for (int i = 0; i < values.length; i++) {
+            if (heap.size() < limit) {
+                heap.add(i);
+            } else {
+                int weakest = heap.peek();
+                if (values[i] > values[weakest]) {
+                    heap.poll();
+                    heap.add(i);
+                }
+            }
+        }
+
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        return result;
+    }
+
+    /*
+     * Column storage (see also IntColumn and StringDictionary)
+     */
+
+    /**
+     * Growable double array.
+     */
+    private static final class DoubleColumn {
+        private double[] data = new double[1024];
+        private int size = 0;
+
+        void add(double value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package sql;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hot/cold archival of closed rentals and old reviews.
+ *
+ * Closed rentals (return_date set) and reviews older than a cutoff date are
+ * moved in chunked transactions from the main database into an archive
+ * database attached as "archive". The cutoff is recorded in
+ * archive.Archive_State, so a query only needs the archive when it asks for
+ * data from before the cutoff. {@link #spanning(String, String)} rewrites
+ * such queries to read both the hot and archived rows.
+ *
+ * The main tables may gain columns after the archive was created (see
+ * {@link SchemaRegistry}). Each archive run first adds those columns to
+ * the archive copies, and both the moves and the spanning queries name
+ * their columns instead of relying on SELECT * lining up; a column the
+ * archive does not have yet reads as NULL.
+ */
+public final class Archive {
+
+    /**
+     * Tables that have archived history, as named in application SQL.
+     */
+    private static final String[] ARCHIVED_TABLES = { "Rental_Transaction", "Rating_and_Review" };
+
+    static final String ALIAS = "archive";
+
+    private static String archiveFile = null;
+
+    /**
+     * Everything before this date (YYYY-MM-DD) that is eligible has been
+     * archived; null if nothing has been archived yet.
+     */
+    private static String archivedThrough = null;
+
+    /**
+     * Columns (lower case) of each archived table's archive copy, by table;
+     * empty until the archive is attached.
+     */
+    private static final Map<String, Set<String>> archiveColumns = new HashMap<>();
+
+    // Private constructor to prevent instantiation
+    private Archive() {
+    }
+
+    /**
+     * Archive file for a database: "X.db" -> "X_archive.db".
+     */
+    public static String archiveFileFor(String databaseFileName) {
+        return databaseFileName.replaceAll("\\.db$", "") + "_archive.db";
+    }
+
+    /**
+     * The archive file of the open database; null before it is opened.
+     */
+    public static synchronized String getArchiveFile() {
+        return archiveFile;
+    }
+
+    /**
+     * Attaches the archive database to a connection if the archive file
+     * exists, and loads the archive cutoff.
+     *
+     * @param conn             the connection to attach to
+     * @param databaseFileName the main database file name
+     */
+    public static synchronized void attachIfPresent(Connection conn, String databaseFileName)
+            throws SQLException {
+        archiveFile = archiveFileFor(databaseFileName);
+        if (!Files.exists(Paths.get(archiveFile))) {
+            return;
+        }
+        attach(conn);
+        // Null if the archive file exists but has not been set up yet
+        reloadState(conn);
+    }
+
+    /**
+     * Re-reads the archive cutoff and the archive's columns, e.g. after a
+     * restore replaced the archive's contents.
+     */
+    public static synchronized void reloadState(Connection conn) {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT MIN(archived_through) FROM " + ALIAS + ".Archive_State;")) {
+            archivedThrough = rs.next() ? rs.getString(1) : null;
+        } catch (SQLException e) {
+            archivedThrough = null;
+        }
+        archiveColumns.clear();
+        try {
+            for (String table : ARCHIVED_TABLES) {
+                archiveColumns.put(table, lowerCase(columns(conn, ALIAS, table).keySet()));
+            }
+        } catch (SQLException e) {
+            archiveColumns.clear();
+        }
+    }
+
+    public static synchronized String getArchivedThrough() {
+        return archivedThrough;
+    }
+
+    /**
+     * Returns true if a query covering dates from fromDate onward needs
+     * archived rows. A null fromDate means all history.
+     */
+    public static synchronized boolean needsArchive(String fromDate) {
+        return archivedThrough != null && (fromDate == null || fromDate.compareTo(archivedThrough) < 0);
+    }
+
+    /**
+     * Rewrites a query so each archived table reads hot and archived rows
+     * together, but only when the requested range reaches back before the
+     * archive cutoff. Otherwise the SQL is returned unchanged.
+     *
+     * @param sql      application SQL that refers to the tables by name
+     * @param fromDate earliest date the query needs (YYYY-MM-DD); null for all
+     */
+    public static String spanning(String sql, String fromDate) {
+        if (!needsArchive(fromDate)) {
+            return sql;
+        }
+        String result = sql;
+        for (String table : ARCHIVED_TABLES) {
+            Pattern p = Pattern.compile("(?i)(?<![.\\w])" + table + "(?![.\\w])");
+            result = p.matcher(result).replaceAll(Matcher.quoteReplacement(union(table)));
+        }
+        return result;
+    }
+
+    /**
+     * Moves closed rentals checked out before the cutoff, and reviews dated
+     * before it, into the archive, chunkSize rows per transaction.
+     *
+     * @param conn   the shared (writer) connection
+     * @param cutoff YYYY-MM-DD; older history is archived
+     * @return the total number of rows moved
+     */
+    public static synchronized int archiveBefore(Connection conn, String cutoff, int chunkSize)
+            throws SQLException {
+        if (archiveFile == null) {
+            throw new IllegalStateException("Database not initialized. Call SQL.initializeDB(...) first.");
+        }
+        if (!isAttached(conn)) {
+            attach(conn);
+        }
+        WritePolicy.execute(conn, c -> {
+            createArchiveTables(c);
+            return null;
+        });
+        reloadState(conn);
+
+        // Archived rentals still count toward each member's summary.
+        int moved = 0;
+        moved += moveInChunks(conn, "Rental_Transaction",
+                "return_date IS NOT NULL AND checkout_date < ?", cutoff, chunkSize,
+                MemberSummary.exists(conn));
+        moved += moveInChunks(conn, "Rating_and_Review", "date < ?", cutoff, chunkSize, false);
+
+        // The archive holds all eligible history before the latest cutoff used.
+        String through = (archivedThrough == null || cutoff.compareTo(archivedThrough) > 0)
+                ? cutoff : archivedThrough;
+        WritePolicy.execute(conn, c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT OR REPLACE INTO " + ALIAS + ".Archive_State (table_name, archived_through) "
+                    + "VALUES (?, ?);")) {
+                for (String table : ARCHIVED_TABLES) {
+                    ps.setString(1, table);
+                    ps.setString(2, through);
+                    ps.executeUpdate();
+                }
+            }
+            return null;
+        });
+        archivedThrough = through;
+        return moved;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static void attach(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ATTACH DATABASE '" + archiveFile.replace("'", "''") + "' AS " + ALIAS + ";");
+        }
+    }
+
+    /**
+     * Returns true if the archive database is attached to the connection.
+     */
+    public static boolean isAttached(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA database_list;")) {
+            while (rs.next()) {
+                if (ALIAS.equals(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hot and archived rows of a table, columns named as in main. Falls back
+     * to SELECT * if main's columns cannot be read.
+     */
+    private static synchronized String union(String table) {
+        SchemaRegistry.TableSchema schema = SchemaRegistry.get(table);
+        if (schema == null) {
+            return "(SELECT * FROM main." + table + " UNION ALL SELECT * FROM " + ALIAS + "." + table + ")";
+        }
+        Set<String> archived = archiveColumns.get(table);
+        List<String> hot = new ArrayList<>();
+        List<String> cold = new ArrayList<>();
+        for (String column : schema.getColumnNames()) {
+            String name = quote(column);
+            hot.add(name);
+            boolean present = archived == null || archived.isEmpty()
+                    || archived.contains(column.toLowerCase(Locale.ROOT));
+            cold.add(present ? name : "NULL AS " + name);
+        }
+        return "(SELECT " + String.join(", ", hot) + " FROM main." + table
+                + " UNION ALL SELECT " + String.join(", ", cold) + " FROM " + ALIAS + "." + table + ")";
+    }
+
+    /**
+     * Column name -> declared type of a table in one schema, in table order.
+     */
+    private static Map<String, String> columns(Connection conn, String schema, String table)
+            throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".table_info(" + table + ");")) {
+            while (rs.next()) {
+                columns.put(rs.getString("name"), rs.getString("type") == null ? "" : rs.getString("type"));
+            }
+        }
+        return columns;
+    }
+
+    private static Set<String> lowerCase(Set<String> names) {
+        Set<String> lower = new HashSet<>();
+        for (String name : names) {
+            lower.add(name.toLowerCase(Locale.ROOT));
+        }
+        return lower;
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Creates the archive copies of the archived tables (same definitions as
+     * the main tables) and the Archive_State table, and adds any columns
+     * main has gained since an archive copy was created.
+     */
+    private static void createArchiveTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + ALIAS + ".Archive_State ("
+                    + "table_name VARCHAR (50) PRIMARY KEY, archived_through DATE);");
+            for (String table : ARCHIVED_TABLES) {
+                String createSql = null;
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT sql FROM main.sqlite_master WHERE type = 'table' AND name = ? COLLATE NOCASE;")) {
+                    ps.setString(1, table);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            createSql = rs.getString(1);
+                        }
+                    }
+                }
+                if (createSql == null) {
+                    throw new SQLException("Table " + table + " not found.");
+                }
+                // "CREATE TABLE Name (...)" -> "CREATE TABLE IF NOT EXISTS archive.Name (...)"
+                stmt.executeUpdate(createSql.replaceFirst("(?i)^CREATE TABLE\\s+",
+                        "CREATE TABLE IF NOT EXISTS " + ALIAS + "."));
+
+                Set<String> archived = lowerCase(columns(conn, ALIAS, table).keySet());
+                for (Map.Entry<String, String> column : columns(conn, "main", table).entrySet()) {
+                    if (!archived.contains(column.getKey().toLowerCase(Locale.ROOT))) {
+                        stmt.executeUpdate("ALTER TABLE " + ALIAS + "." + table + " ADD COLUMN "
+                                + quote(column.getKey()) + " " + column.getValue() + ";");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves rows matching a predicate (with one date parameter) to the
+     * archive, one chunk per {@link WritePolicy} transaction, so the writer
+     * lock is only held briefly at a time. With retainSummary, each chunk's rentals are added
+     * back to the member summary before the delete trigger subtracts them.
+     * Each chunk is recorded in the change log as an ARCHIVE change.
+     */
+    private static int moveInChunks(Connection conn, String table, String predicate,
+                                    String cutoff, int chunkSize, boolean retainSummary) throws SQLException {
+        String chunk = "SELECT rowid FROM main." + table + " WHERE " + predicate
+                + " ORDER BY rowid LIMIT ?";
+        List<String> names = new ArrayList<>();
+        for (String column : columns(conn, "main", table).keySet()) {
+            names.add(quote(column));
+        }
+        String columnList = String.join(", ", names);
+        String copySql = "INSERT INTO " + ALIAS + "." + table + " (" + columnList + ") SELECT " + columnList
+                + " FROM main." + table + " WHERE rowid IN (" + chunk + ");";
+        String deleteSql = "DELETE FROM main." + table + " WHERE rowid IN (" + chunk + ");";
+
+        int moved = 0;
+        try (PreparedStatement copy = conn.prepareStatement(copySql);
+             PreparedStatement retain = retainSummary ? conn.prepareStatement(MemberSummary.retainSql(chunk)) : null;
+             PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+            while (true) {
+                int copied = WritePolicy.execute(conn, c -> {
+                    copy.setString(1, cutoff);
+                    copy.setInt(2, chunkSize);
+                    int n = copy.executeUpdate();
+
+                    if (retain != null) {
+                        retain.setString(1, cutoff);
+                        retain.setInt(2, chunkSize);
+                        retain.executeUpdate();
+                    }
+
+                    delete.setString(1, cutoff);
+                    delete.setInt(2, chunkSize);
+                    int deleted = delete.executeUpdate();
+
+                    if (n != deleted) {
+                        throw new SQLException("Archive of " + table + " copied " + n
+                                + " row(s) but would delete " + deleted + "; rolled back.");
+                    }
+                    return n;
+                });
+                moved += copied;
+                if (copied > 0) {
+                    ChangeLog.record(ChangeLog.ARCHIVE, table, "cutoff=" + cutoff, null,
+                            Collections.singletonMap("rows", String.valueOf(copied)));
+                }
+                if (copied < chunkSize) {
+                    break;
+                }
+            }
+        }
+        System.out.println(moved + " row(s) of " + table + " archived.");
+        return moved;
+    }
+}
@@ -0,0 +1,188 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs read-only queries off the calling thread and returns
+ * CompletableFutures, so several queries can run at once and be composed
+ * (thenApply, allOf, ...) without blocking the caller.
+ *
+ * Work runs on a small fixed pool of daemon threads. Each worker keeps its
+ * own read-only connection (a JDBC connection must not be used by two
+ * threads at once), opened on first use and reused afterwards. The queue of
+ * waiting work is bounded: when it is full, new work is not queued and its
+ * future fails with a RejectedExecutionException, so callers that issue
+ * queries faster than they complete are pushed back rather than piling up
+ * memory.
+ */
+public final class AsyncQueries {
+
+    /**
+     * Work to run against a worker's read connection.
+     */
+    public interface SqlWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static ThreadPoolExecutor executor = null;
+
+    /**
+     * Open worker connections, so they can be closed on shutdown.
+     */
+    private static final List<Connection> connections = new ArrayList<>();
+
+    /**
+     * Bumped by {@link #resetConnections()}; a worker whose connection is
+     * from an older generation reopens it.
+     */
+    private static volatile int generation = 0;
+
+    private static final class WorkerConnection {
+        Connection conn;
+        int generation;
+    }
+
+    private static final ThreadLocal<WorkerConnection> workerConnection =
+            ThreadLocal.withInitial(WorkerConnection::new);
+
+    // Private constructor to prevent instantiation
+    private AsyncQueries() {
+    }
+
+    /**
+     * Runs a SELECT with the given parameters and completes with all of its
+     * rows.
+     *
+     * @param sql    a SQL SELECT statement that returns rows
+     * @param params values for the ? placeholders, in order
+     */
+    public static CompletableFuture<ResultTable> query(String sql, Object... params) {
+        return submit(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    return ResultTable.from(rs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs arbitrary read-only work on a worker's connection, for callers
+     * that need the ResultSet itself (e.g. to stream an export).
+     */
+    public static <T> CompletableFuture<T> submit(SqlWork<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor().execute(() -> {
+                try {
+                    future.complete(work.run(connection()));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Makes each worker replace its connection before its next task (e.g. so
+     * newly created shards are attached). Queries already running finish on
+     * the old connection.
+     */
+    public static void resetConnections() {
+        generation++;
+    }
+
+    /**
+     * Stops the workers and closes their connections.
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor pool;
+        synchronized (AsyncQueries.class) {
+            pool = executor;
+            executor = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeConnections();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                        Thread t = new Thread(r, "async-query-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * The calling worker's read connection, (re)opened if needed.
+     */
+    private static Connection connection() throws SQLException {
+        WorkerConnection wc = workerConnection.get();
+        if (wc.conn == null || wc.generation != generation || wc.conn.isClosed()) {
+            if (wc.conn != null) {
+                synchronized (connections) {
+                    connections.remove(wc.conn);
+                }
+                wc.conn.close();
+            }
+            int current = generation;
+            Connection reader = SQL.openReadConnection();
+            synchronized (connections) {
+                connections.add(reader);
+            }
+            wc.conn = reader;
+            wc.generation = current;
+        }
+        return wc.conn;
+    }
+
+    private static void closeConnections() {
+        synchronized (connections) {
+            for (Connection c : connections) {
+                try {
+                    c.close();
+                } catch (SQLException e) {
+                    System.out.println("Error closing query connection: " + e.getMessage());
+                }
+            }
+            connections.clear();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of which equipment can be rented right now.
+ *
+ * Each piece of equipment gets a bit position. One bitset per warehouse and
+ * one per type say which positions belong to it; two more mark equipment
+ * that is out on an open rental (return_date NULL) and equipment that is
+ * out of service (status 'maintenance' or 'retired'). "Available at this
+ * warehouse, of this type" is then an AND of two bitsets minus the other
+ * two, with no query.
+ *
+ * The index is loaded from the database on first use. New rentals and
+ * returns are applied as the change log reports them; any other change to
+ * Rental_Transaction or Equipment (edits, deletes, new equipment) marks the
+ * index stale, and it is reloaded on next use. Rentals and returns made in
+ * this process are also reported directly, so the change log's copy of a
+ * rental insert can arrive after the rental was already returned; the
+ * index remembers which rentals it has applied and skips those inserts.
+ *
+ * {@link #reserve(String)} is how rentals are created without
+ * double-booking: it atomically checks that the equipment is free and
+ * holds it until the rental row is written ({@link #rented}) or the insert
+ * fails ({@link #release(String)}). The caller reports both directly, so a
+ * hold never depends on the change log. The hold only covers this
+ * process; the insert itself is guarded by {@link #NOT_RENTED_CONDITION},
+ * which the database checks inside the write transaction.
+ */
+public final class Availability {
+
+    public static final String RENTAL_TABLE = "Rental_Transaction";
+    public static final String EQUIPMENT_TABLE = "Equipment";
+
+    /**
+     * Partial index of open rentals by equipment, for the guard below.
+     */
+    public static final String OPEN_RENTAL_INDEX = "idx_rental_equipment_open";
+
+    /**
+     * Condition a new open rental must meet when it is written: no other
+     * open rental of the same equipment. One parameter, the equipment_id.
+     */
+    public static final String NOT_RENTED_CONDITION = "NOT EXISTS (SELECT 1 FROM " + RENTAL_TABLE
+            + " WHERE equipment_id = ? AND return_date IS NULL)";
+
+    /**
+     * Queries that load the index: every piece of equipment, then the open
+     * rentals.
+     */
+    public static final String EQUIPMENT_SQL = "SELECT equipment_id, type, wrhs_address, status FROM "
+            + EQUIPMENT_TABLE + " WHERE equipment_id IS NOT NULL ORDER BY equipment_id;";
+    public static final String OPEN_RENTALS_SQL = "SELECT rental_id, equipment_id FROM " + RENTAL_TABLE
+            + " WHERE return_date IS NULL AND equipment_id IS NOT NULL;";
+
+    private static boolean indexed = false;
+
+    /**
+     * Result of a reserve call.
+     */
+    public enum Reservation {
+        RESERVED, ALREADY_RENTED, OUT_OF_SERVICE, UNKNOWN_EQUIPMENT
+    }
+
+    private static boolean loaded = false;
+
+    // Per bit position
+    private static final List<String> ids = new ArrayList<>();
+    private static final List<String> types = new ArrayList<>();
+    private static final List<String> warehouses = new ArrayList<>();
+    private static final Map<String, Integer> positions = new HashMap<>();
+
+    private static final Map<String, BitSet> byWarehouse = new HashMap<>();
+    private static final Map<String, BitSet> byType = new HashMap<>();
+    private static final BitSet all = new BitSet();
+    private static final BitSet rented = new BitSet();
+    private static final BitSet outOfService = new BitSet();
+
+    /**
+     * Open rentals: rental_id -> bit position of the equipment.
+     */
+    private static final Map<String, Integer> openRentals = new HashMap<>();
+
+    /**
+     * rental_ids whose insert has been applied (or loaded, or returned), so a
+     * replayed insert does not mark the equipment rented again.
+     */
+    private static final Set<String> applied = new HashSet<>();
+
+    /**
+     * Equipment reserved for a rental that has not been written yet.
+     */
+    private static final Set<String> pending = new HashSet<>();
+
+    static {
+        ChangeLog.addListener(Availability::apply);
+    }
+
+    // Private constructor to prevent instantiation
+    private Availability() {
+    }
+
+    /**
+     * Equipment that is in service and not rented out, optionally limited to
+     * one warehouse and/or type (null or empty means any).
+     *
+     * Columns: equipment_id, type, wrhs_address
+     */
+    public static synchronized ResultTable available(String wrhsAddress, String type) throws SQLException {
+        ensureLoaded();
+
+        BitSet free = (BitSet) all.clone();
+        if (wrhsAddress != null && !wrhsAddress.isEmpty()) {
+            free.and(byWarehouse.getOrDefault(wrhsAddress.toLowerCase(), new BitSet()));
+        }
+        if (type != null && !type.isEmpty()) {
+            free.and(byType.getOrDefault(type.toLowerCase(), new BitSet()));
+        }
+        free.andNot(rented);
+        free.andNot(outOfService);
+
+        List<String[]> rows = new ArrayList<>();
+        for (int i = free.nextSetBit(0); i >= 0; i = free.nextSetBit(i + 1)) {
+            if (!pending.contains(ids.get(i))) {
+                rows.add(new String[] { ids.get(i), types.get(i), warehouses.get(i) });
+            }
+        }
+        return new ResultTable(new String[] { "equipment_id", "type", "wrhs_address" }, rows);
+    }
+
+    /**
+     * Holds a piece of equipment for a new rental if it is free. Call before
+     * inserting the rental row; the hold ends when the change log reports
+     * the insert, or on {@link #release(String)}.
+     */
+    public static synchronized Reservation reserve(String equipmentId) throws SQLException {
+        ensureLoaded();
+        Integer pos = positions.get(equipmentId);
+        if (pos == null) {
+            // Possibly added since the index was loaded
+            loaded = false;
+            ensureLoaded();
+            pos = positions.get(equipmentId);
+        }
+        if (pos == null) {
+            return Reservation.UNKNOWN_EQUIPMENT;
+        }
+        if (rented.get(pos) || pending.contains(equipmentId)) {
+            return Reservation.ALREADY_RENTED;
+        }
+        if (outOfService.get(pos)) {
+            return Reservation.OUT_OF_SERVICE;
+        }
+        pending.add(equipmentId);
+        return Reservation.RESERVED;
+    }
+
+    /**
+     * Drops a hold taken by {@link #reserve(String)} whose rental was not
+     * written.
+     */
+    public static synchronized void release(String equipmentId) {
+        pending.remove(equipmentId);
+    }
+
+    /**
+     * Records that an open rental of the equipment was written: ends the
+     * hold and marks the equipment rented.
+     */
+    public static synchronized void rented(String equipmentId, String rentalId) {
+        pending.remove(equipmentId);
+        if (rentalId != null && !applied.add(rentalId)) {
+            return;
+        }
+        if (!loaded) {
+            return;
+        }
+        Integer pos = equipmentId == null ? null : positions.get(equipmentId);
+        if (pos != null && rentalId != null) {
+            openRentals.put(rentalId, pos);
+            rented.set(pos);
+        } else if (equipmentId != null && pos == null) {
+            loaded = false;
+        }
+    }
+
+    /**
+     * Records that a rental was returned, freeing its equipment unless
+     * another open rental holds it.
+     */
+    public static synchronized void returned(String rentalId) {
+        applied.add(rentalId);
+        Integer pos = openRentals.remove(rentalId);
+        if (pos != null && !openRentals.containsValue(pos)) {
+            rented.clear(pos);
+        }
+    }
+
+    /**
+     * Creates {@link #OPEN_RENTAL_INDEX} if it does not exist yet.
+     *
+     * @param conn the shared (writer) connection
+     */
+    public static synchronized void ensureIndex(Connection conn) throws SQLException {
+        if (indexed) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + OPEN_RENTAL_INDEX + " ON " + RENTAL_TABLE
+                    + " (equipment_id) WHERE return_date IS NULL;");
+        }
+        indexed = true;
+    }
+
+    /**
+     * Marks the index stale so it is reloaded on next use, e.g. after a
+     * restore replaced the database.
+     */
+    public static synchronized void clear() {
+        loaded = false;
+        indexed = false;
+        pending.clear();
+        applied.clear();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static void ensureLoaded() throws SQLException {
+        if (loaded) {
+            return;
+        }
+        Connection conn = SQL.getReadConnection();
+        if (conn == null) {
+            throw new SQLException("Database not initialized.");
+        }
+
+        ids.clear();
+        types.clear();
+        warehouses.clear();
+        positions.clear();
+        byWarehouse.clear();
+        byType.clear();
+        all.clear();
+        rented.clear();
+        outOfService.clear();
+        openRentals.clear();
+
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(EQUIPMENT_SQL)) {
+                while (rs.next()) {
+                    String id = rs.getString(1);
+                    if (positions.containsKey(id)) {
+                        continue;
+                    }
+                    int pos = ids.size();
+                    ids.add(id);
+                    types.add(rs.getString(2));
+                    warehouses.add(rs.getString(3));
+                    positions.put(id, pos);
+                    all.set(pos);
+                    bitsFor(byType, rs.getString(2)).set(pos);
+                    bitsFor(byWarehouse, rs.getString(3)).set(pos);
+                    String status = rs.getString(4);
+                    if ("maintenance".equalsIgnoreCase(status) || "retired".equalsIgnoreCase(status)) {
+                        outOfService.set(pos);
+                    }
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery(OPEN_RENTALS_SQL)) {
+                while (rs.next()) {
+                    Integer pos = positions.get(rs.getString(2));
+                    if (pos != null) {
+                        openRentals.put(rs.getString(1), pos);
+                        rented.set(pos);
+                    }
+                    applied.add(rs.getString(1));
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    private static BitSet bitsFor(Map<String, BitSet> index, String value) {
+        String key = value == null ? "" : value.toLowerCase();
+        return index.computeIfAbsent(key, k -> new BitSet());
+    }
+
+    /**
+     * Change log listener: applies new rentals and returns, marks the index
+     * stale for anything else that touches rentals or equipment.
+     */
+    private static synchronized void apply(ChangeLog.Change change) {
+        boolean rental = change.table.equalsIgnoreCase(RENTAL_TABLE);
+        if (!rental && !change.table.equalsIgnoreCase(EQUIPMENT_TABLE)) {
+            return;
+        }
+        // Inserts made through NewEntity were already applied directly, and
+        // the rental may have been returned since; rented() skips those
+        if (rental && change.operation.equals(ChangeLog.INSERT)) {
+            if (change.after.get("return_date") == null) {
+                rented(change.after.get("equipment_id"), change.after.get("rental_id"));
+            } else {
+                pending.remove(change.after.get("equipment_id"));
+            }
+            return;
+        }
+        if (!loaded) {
+            return;
+        }
+
+        // A return: only return_date changed, to a date
+        String rentalId = change.key.startsWith("rental_id=") ? change.key.substring("rental_id=".length()) : null;
+        if (rental && change.operation.equals(ChangeLog.UPDATE) && rentalId != null
+                && change.after.size() == 1 && change.after.get("return_date") != null) {
+            returned(rentalId);
+            return;
+        }
+
+        loaded = false;
+    }
+}
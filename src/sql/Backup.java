@@ -0,0 +1,373 @@
+package sql;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+/**
+ * Online snapshots of the database.
+ *
+ * A snapshot is taken with SQLite's online backup API on a separate
+ * read-only connection, {@link #PAGES_PER_STEP} pages per step with a
+ * {@link #STEP_PAUSE_MS} pause after each. The source is only read-locked
+ * while a step runs, so the shared connection keeps reading and writing
+ * while the copy runs, and waits at most one step. If another connection
+ * writes during the copy, SQLite starts the copy over so the snapshot stays
+ * consistent; the report counts those restarts. A compact snapshot uses
+ * VACUUM INTO instead: one read transaction for the whole copy, and a
+ * smaller file. Snapshots can run once on demand or on a fixed schedule,
+ * and any snapshot can be restored into the live database.
+ *
+ * The archive and the warehouse shards are separate files attached to the
+ * read connection, and each is copied along with main: snapshot_T.db holds
+ * main, snapshot_T.archive.db the archive and snapshot_T.wrhs_N.db each
+ * shard. They are restored as a set. A snapshot whose archive or shards do
+ * not match the live database is refused, because restoring main alone
+ * would bring back rows the archive or a shard still holds (and count them
+ * twice) or lose rows written since.
+ */
+public final class Backup {
+
+    /**
+     * Directory snapshot files are written to.
+     */
+    private static Path directory = Paths.get("backups");
+
+    /**
+     * Main snapshot files; companions have an extra ".part" before ".db".
+     */
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot_\\d{8}_\\d{6}_\\d{3}\\.db");
+
+    private static final String ARCHIVE_PART = "archive";
+
+    /**
+     * Pages copied per backup step.
+     */
+    public static final int PAGES_PER_STEP = 64;
+
+    /**
+     * Pause after each backup step, so the writer can commit in between.
+     */
+    public static final int STEP_PAUSE_MS = 5;
+
+    /**
+     * Busy retries per step (STEP_PAUSE_MS apart) before the backup fails.
+     */
+    private static final int BUSY_RETRIES = 200;
+
+    private static ScheduledExecutorService scheduler = null;
+    private static ScheduledFuture<?> scheduled = null;
+
+    // Private constructor to prevent instantiation
+    private Backup() {
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Takes one snapshot now (main, archive and shards) in page steps and
+     * prints its size, duration, throughput and how long each step held the
+     * database.
+     *
+     * @return the main snapshot file, or null if the snapshot failed
+     */
+    public static Path snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Same as {@link #snapshot()}; with compact, copies with VACUUM INTO
+     * instead of in page steps.
+     */
+    public static synchronized Path snapshot(boolean compact) {
+        Path target = directory.resolve("snapshot_"
+                + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date()) + ".db");
+
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            long bytes = 0;
+            Steps steps = new Steps();
+            // No archive run may move rows between the files being copied
+            synchronized (Archive.class) {
+                try (Connection reader = SQL.openReadConnection()) {
+                    Map<String, String> files = attachedFiles(reader);
+                    for (Map.Entry<String, String> e : files.entrySet()) {
+                        String schema = e.getKey();
+                        String part = schema.equals(Archive.ALIAS) ? ARCHIVE_PART : baseName(e.getValue());
+                        Path copy = schema.equals("main") ? target : companion(target, part);
+                        if (compact) {
+                            try (PreparedStatement ps = reader.prepareStatement("VACUUM " + schema + " INTO ?;")) {
+                                ps.setString(1, copy.toString());
+                                ps.executeUpdate();
+                            }
+                        } else {
+                            copyInSteps(reader, schema, copy, steps);
+                        }
+                        bytes += Files.size(copy);
+                    }
+                }
+            }
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.println(String.format("Snapshot written to %s: %d KB in %d ms (%.1f MB/s).",
+                    target, bytes / 1024, millis, (bytes / 1048576.0) / (millis / 1000.0)));
+            if (!compact) {
+                System.out.println(steps);
+            }
+            return target;
+        } catch (SQLException | IOException e) {
+            System.out.println("Error taking snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Takes a snapshot every intervalMinutes in the background, replacing
+     * any previous schedule.
+     */
+    public static synchronized void schedule(long intervalMinutes) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "backup-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduled = scheduler.scheduleAtFixedRate(Backup::snapshot,
+                intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops scheduled snapshots. Returns false if none were scheduled.
+     */
+    public static synchronized boolean cancelSchedule() {
+        if (scheduled == null) {
+            return false;
+        }
+        scheduled.cancel(false);
+        scheduled = null;
+        return true;
+    }
+
+    public static synchronized boolean isScheduled() {
+        return scheduled != null;
+    }
+
+    /**
+     * Lists snapshot files, oldest first (names sort by timestamp).
+     */
+    public static List<Path> listSnapshots() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "snapshot_*.db")) {
+            for (Path p : ds) {
+                if (SNAPSHOT_NAME.matcher(p.getFileName().toString()).matches()) {
+                    snapshots.add(p);
+                }
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    /**
+     * Replaces the contents of the live database, its archive and its shards
+     * with a snapshot, through the shared and shard writer connections.
+     * Other connections should be closed first.
+     *
+     * Uses the SQLite JDBC driver's "restore [schema] from" statement, which
+     * copies each file in with SQLite's online backup API. Nothing is
+     * restored if the snapshot's archive or shards do not match the live
+     * ones (see the class comment). The restore is recorded in the change
+     * log as a RESTORE change.
+     */
+    public static void restore(Path snapshot) throws SQLException {
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            throw new IllegalStateException("Database not initialized. Call SQL.initializeDB(...) first.");
+        }
+        if (!Files.exists(snapshot)) {
+            throw new SQLException("Snapshot not found: " + snapshot);
+        }
+
+        // Check the whole set before replacing anything
+        Path archiveCopy = companion(snapshot, ARCHIVE_PART);
+        boolean liveArchive = Archive.isAttached(conn);
+        if (Files.exists(archiveCopy) && !liveArchive) {
+            throw new SQLException("Snapshot includes an archive, but the live database has none; not restored.");
+        }
+        if (!Files.exists(archiveCopy) && liveArchive) {
+            throw new SQLException("Snapshot was taken before history was archived; restoring it would "
+                    + "bring back archived rentals and reviews alongside the archive's copies. Not restored.");
+        }
+        if (ShardRouter.isEnabled()) {
+            for (String file : ShardRouter.shardFiles(conn).values()) {
+                if (!Files.exists(companion(snapshot, baseName(file)))) {
+                    throw new SQLException("Shard " + file + " is not in this snapshot (created after it); "
+                            + "not restored.");
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("restore from \"" + snapshot + "\"");
+            if (liveArchive) {
+                stmt.executeUpdate("restore " + Archive.ALIAS + " from \"" + archiveCopy + "\"");
+                Archive.reloadState(conn);
+            }
+        }
+        if (ShardRouter.isEnabled()) {
+            // The restored Shard_Map says which shards the snapshot had
+            for (Map.Entry<String, String> e : ShardRouter.shardFiles(conn).entrySet()) {
+                Path shardCopy = companion(snapshot, baseName(e.getValue()));
+                if (!Files.exists(shardCopy)) {
+                    continue;
+                }
+                try (Statement stmt = ShardRouter.connectionFor(conn, e.getKey()).createStatement()) {
+                    stmt.executeUpdate("restore from \"" + shardCopy + "\"");
+                }
+            }
+        }
+        SQL.resetReadConnection();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        ChangeLog.record(ChangeLog.RESTORE, "*", "snapshot=" + snapshot.getFileName(), null, null);
+
+        // Anything cached from the old contents is now stale.
+        AnalyticsSnapshot.clear();
+        SchemaRegistry.clear();
+        RentalDetails.clearCache();
+        ServiceArea.clear();
+        Availability.clear();
+        TrigramIndex.clear();
+        System.out.println("Restored from " + snapshot + " in " + millis + " ms.");
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Copies one attached database to a file with the online backup API,
+     * PAGES_PER_STEP pages at a time.
+     */
+    private static void copyInSteps(Connection reader, String schema, Path copy, Steps steps)
+            throws SQLException {
+        DB db = reader.unwrap(SQLiteConnection.class).getDatabase();
+        steps.begin();
+        int rc = db.backup(schema, copy.toString(), steps, STEP_PAUSE_MS, BUSY_RETRIES, PAGES_PER_STEP);
+        if (rc != 0) {
+            throw new SQLException("Backup of " + schema + " failed (SQLite result code " + rc + ").");
+        }
+    }
+
+    /**
+     * Times the steps of a backup. The driver calls progress after each
+     * step; the time since the previous call (less the pause) is how long
+     * that step took, including any wait for the writer's lock.
+     */
+    private static final class Steps implements DB.ProgressObserver {
+        private int steps = 0;
+        private int restarts = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private int lastRemaining;
+        private long stepStart;
+
+        void begin() {
+            lastRemaining = Integer.MAX_VALUE;
+            stepStart = System.nanoTime();
+        }
+
+        @Override
+        public void progress(int remaining, int pageCount) {
+            long nanos = System.nanoTime() - stepStart;
+            steps++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            // More pages left than after the last step: SQLite started over
+            if (remaining > lastRemaining) {
+                restarts++;
+            }
+            lastRemaining = remaining;
+            if (remaining > 0) {
+                try {
+                    Thread.sleep(STEP_PAUSE_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            stepStart = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d step(s) of up to %d pages; each took %.2f ms on average, "
+                    + "%.2f ms at most (%d ms pause between steps)%s.",
+                    steps, PAGES_PER_STEP, steps == 0 ? 0 : totalNanos / 1e6 / steps, maxNanos / 1e6,
+                    STEP_PAUSE_MS, restarts == 0 ? "" : "; restarted " + restarts
+                            + " time(s) after writes from another connection");
+        }
+    }
+
+    /**
+     * Schema name -> file of every database attached to a connection,
+     * main first (temp excluded).
+     */
+    private static Map<String, String> attachedFiles(Connection conn) throws SQLException {
+        Map<String, String> files = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA database_list;")) {
+            while (rs.next()) {
+                if (!rs.getString("name").equals("temp")) {
+                    files.put(rs.getString("name"), rs.getString("file"));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * "snapshot_T.db" + "archive" -> "snapshot_T.archive.db"
+     */
+    private static Path companion(Path snapshot, String part) {
+        String name = snapshot.getFileName().toString().replaceAll("\\.db$", "");
+        return snapshot.resolveSibling(name + "." + part + ".db");
+    }
+
+    /**
+     * "shards/wrhs_3.db" -> "wrhs_3"
+     */
+    private static String baseName(String file) {
+        return Paths.get(file).getFileName().toString().replaceAll("\\.db$", "");
+    }
+}
@@ -0,0 +1,396 @@
+package sql;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Append-only change log of every mutation made through the application.
+ *
+ * Each change gets a sequence number and is appended as one line to
+ * &lt;database&gt;.changes.log by a single background thread, so the caller
+ * never waits on the file. Consumers can replay the file from a sequence
+ * number with {@link #readSince(long)} or follow new changes in-process with
+ * {@link #addListener(Consumer)}. The in-memory indexes (availability,
+ * trigram search, rental details, analytics snapshot) are kept current by
+ * listeners, so listeners are called for every change even when the log
+ * file could not be opened or written.
+ *
+ * Line format (tab separated):
+ *   seq  timestamp  operation  table  key  before  after
+ * where before/after are "col=value;col=value" lists and \N marks NULL.
+ * Besides row changes, ARCHIVE records one chunk of rows moved to the
+ * archive (key "cutoff=date", after "rows=n") and RESTORE a restore that
+ * replaced every table (table "*", key "snapshot=file").
+ */
+public final class ChangeLog {
+
+    public static final String INSERT = "INSERT";
+    public static final String UPDATE = "UPDATE";
+    public static final String DELETE = "DELETE";
+    public static final String ARCHIVE = "ARCHIVE";
+    public static final String RESTORE = "RESTORE";
+
+    /**
+     * One recorded mutation.
+     */
+    public static final class Change {
+        public final long seq;
+        public final long timestamp;
+        public final String operation;
+        public final String table;
+        public final String key;
+        public final Map<String, String> before;
+        public final Map<String, String> after;
+
+        Change(long seq, long timestamp, String operation, String table, String key,
+               Map<String, String> before, Map<String, String> after) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.operation = operation;
+            this.table = table;
+            this.key = key;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private static Path logFile = null;
+    private static FileChannel channel = null;
+    private static ExecutorService writer = null;
+    private static long lastSeq = 0;
+    private static final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+
+    // Private constructor to prevent instantiation
+    private ChangeLog() {
+    }
+
+    /**
+     * Opens (or creates) the change log next to the database file and
+     * continues numbering from the last recorded sequence number.
+     *
+     * @param databaseFileName the database file name
+     */
+    public static synchronized void open(String databaseFileName) {
+        if (writer != null) {
+            return;
+        }
+        logFile = Paths.get(databaseFileName + ".changes.log");
+        try {
+            lastSeq = readLastSequence();
+            channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.out.println("Change log unavailable: " + e.getMessage());
+            channel = null;
+        }
+        writer = newWriter();
+    }
+
+    /**
+     * Waits for queued changes to be written, then closes the log file.
+     */
+    public static synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing change log: " + e.getMessage());
+            }
+        }
+        writer = null;
+        channel = null;
+    }
+
+    /**
+     * Records a mutation. Returns immediately; the line is written, and the
+     * listeners called, by the background writer thread. The listeners are
+     * called even if the line cannot be written.
+     *
+     * @param operation INSERT, UPDATE, DELETE, ARCHIVE or RESTORE
+     * @param table     the table that changed
+     * @param key       identifies the row, e.g. "rowid=12" or "rental_id=100004"
+     * @param before    column values before the change (null for inserts)
+     * @param after     column values after the change (null for deletes)
+     * @return the sequence number assigned
+     */
+    public static synchronized long record(String operation, String table, String key,
+                                           Map<String, String> before, Map<String, String> after) {
+        if (writer == null) {
+            // Not opened (or closed): no file, but listeners still follow
+            writer = newWriter();
+        }
+        FileChannel out = channel;
+        Change change = new Change(++lastSeq, System.currentTimeMillis(), operation, table, key,
+                before == null ? new LinkedHashMap<>() : before,
+                after == null ? new LinkedHashMap<>() : after);
+
+        writer.execute(() -> {
+            if (out != null) {
+                try {
+                    ByteBuffer line = ByteBuffer.wrap(format(change).getBytes(StandardCharsets.UTF_8));
+                    while (line.hasRemaining()) {
+                        out.write(line);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error writing change log: " + e.getMessage());
+                }
+            }
+            for (Consumer<Change> l : listeners) {
+                try {
+                    l.accept(change);
+                } catch (RuntimeException e) {
+                    System.out.println("Error applying change " + change.seq + ": " + e.getMessage());
+                }
+            }
+        });
+        return change.seq;
+    }
+
+    /**
+     * Registers a consumer called (on the writer thread) after each change is
+     * appended to the log.
+     */
+    public static void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Consumer<Change> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the sequence number of the most recently recorded change.
+     */
+    public static synchronized long lastSequence() {
+        return lastSeq;
+    }
+
+    /**
+     * Replays the log: all changes with a sequence number greater than
+     * afterSeq, in order.
+     */
+    public static List<Change> readSince(long afterSeq) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        if (logFile == null || !Files.exists(logFile)) {
+            return changes;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Change c = parse(line);
+                if (c != null && c.seq > afterSeq) {
+                    changes.add(c);
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static ExecutorService newWriter() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "change-log-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sequence number of the last complete line, found by reading backwards
+     * from the end of the file so startup time does not grow with the log.
+     */
+    private static long readLastSequence() throws IOException {
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long window = 4096;
+            while (true) {
+                long start = Math.max(0, size - window);
+                ByteBuffer buf = ByteBuffer.allocate((int) (size - start));
+                while (buf.hasRemaining() && ch.read(buf, start + buf.position()) > 0) {
+                    // keep reading until the window is full
+                }
+                String text = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+
+                // Ignore a torn final line; take the last complete one.
+                int end = text.lastIndexOf('\n');
+                if (end >= 0) {
+                    int lineStart = text.lastIndexOf('\n', end - 1) + 1;
+                    if (lineStart > 0 || start == 0) {
+                        Change last = parse(text.substring(lineStart, end));
+                        if (last != null) {
+                            return last.seq;
+                        }
+                        // Unreadable line: fall back to a full scan.
+                        long seq = 0;
+                        for (Change c : readSince(0)) {
+                            seq = c.seq;
+                        }
+                        return seq;
+                    }
+                }
+                if (start == 0) {
+                    return 0;
+                }
+                window *= 2;
+            }
+        }
+    }
+
+    /*
+     * Serialization
+     */
+
+    private static String format(Change c) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(c.seq).append('\t')
+          .append(c.timestamp).append('\t')
+          .append(c.operation).append('\t');
+        escape(sb, c.table);
+        sb.append('\t');
+        escape(sb, c.key);
+        sb.append('\t');
+        formatValues(sb, c.before);
+        sb.append('\t');
+        formatValues(sb, c.after);
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    private static void formatValues(StringBuilder sb, Map<String, String> values) {
+        boolean first = true;
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            if (!first) {
+                sb.append(';');
+            }
+            escape(sb, e.getKey());
+            sb.append('=');
+            if (e.getValue() == null) {
+                sb.append("\\N");
+            } else {
+                escape(sb, e.getValue());
+            }
+            first = false;
+        }
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '=':
+                    sb.append("\\e");
+                    break;
+                case ';':
+                    sb.append("\\s");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.equals("\\N")) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'e':
+                    sb.append('=');
+                    break;
+                case 's':
+                    sb.append(';');
+                    break;
+                default:
+                    sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> parseValues(String field) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (field.isEmpty()) {
+            return values;
+        }
+        for (String pair : field.split(";", -1)) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            values.put(unescape(pair.substring(0, eq)), unescape(pair.substring(eq + 1)));
+        }
+        return values;
+    }
+
+    /**
+     * Parses one log line; returns null for a malformed (e.g. torn) line.
+     */
+    private static Change parse(String line) {
+        String[] f = line.split("\t", -1);
+        if (f.length != 7) {
+            return null;
+        }
+        try {
+            return new Change(Long.parseLong(f[0]), Long.parseLong(f[1]), f[2],
+                    unescape(f[3]), unescape(f[4]), parseValues(f[5]), parseValues(f[6]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
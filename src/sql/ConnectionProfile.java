@@ -0,0 +1,183 @@
+package sql;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * SQLite PRAGMA settings applied to each connection when it is opened.
+ *
+ * Profiles are read from a properties file. Keys have the form
+ * {@code <profile>.<role>.<pragma>}, where role is "writer" (the shared
+ * connection), "reader" (read-only connections) or "all". The "profile" key
+ * selects the active profile. Example:
+ *
+ * <pre>
+ * profile=fast
+ * fast.writer.journal_mode=WAL
+ * fast.all.synchronous=NORMAL
+ * fast.reader.cache_size=-16000
+ * </pre>
+ *
+ * Only the PRAGMAs in {@link #SUPPORTED_PRAGMAS} are accepted.
+ */
+public final class ConnectionProfile {
+
+    /**
+     * Connection roles a profile can configure separately.
+     */
+    public enum Role {
+        WRITER, READER
+    }
+
+    public static final List<String> SUPPORTED_PRAGMAS = Arrays.asList(
+            "journal_mode", "synchronous", "cache_size", "mmap_size",
+            "temp_store", "busy_timeout", "foreign_keys");
+
+    private final String name;
+    private final Map<String, String> writerPragmas = new LinkedHashMap<>();
+    private final Map<String, String> readerPragmas = new LinkedHashMap<>();
+
+    /**
+     * Profile used when no configuration file exists: driver defaults.
+     */
+    private static ConnectionProfile active = driverDefaults();
+
+    private ConnectionProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * A profile that sets no PRAGMAs, leaving the driver defaults.
+     */
+    public static ConnectionProfile driverDefaults() {
+        return new ConnectionProfile("driver-defaults");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static ConnectionProfile getActive() {
+        return active;
+    }
+
+    public static void setActive(ConnectionProfile profile) {
+        active = profile;
+    }
+
+    /**
+     * PRAGMAs (name -> value) applied for the given role, in order.
+     */
+    public Map<String, String> getPragmas(Role role) {
+        return role == Role.WRITER ? writerPragmas : readerPragmas;
+    }
+
+    /**
+     * Applies this profile's PRAGMAs for the given role. A PRAGMA that fails
+     * (e.g. journal_mode on a read-only connection) is reported and skipped.
+     */
+    public void apply(Connection conn, Role role) {
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> p : getPragmas(role).entrySet()) {
+                try {
+                    stmt.execute("PRAGMA " + p.getKey() + " = " + p.getValue() + ";");
+                } catch (SQLException e) {
+                    System.out.println("Could not apply PRAGMA " + p.getKey() + ": " + e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not apply connection profile " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the active profile from a properties file and makes it current.
+     * Leaves the driver defaults in place if the file does not exist.
+     */
+    public static void loadActive(Path configFile) {
+        if (!Files.exists(configFile)) {
+            return;
+        }
+        try {
+            Properties props = readProperties(configFile);
+            String selected = props.getProperty("profile", "default").trim();
+            active = fromProperties(props, selected);
+            System.out.println("Using connection profile '" + selected + "' from " + configFile + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not load " + configFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads every profile defined in a properties file, in name order.
+     */
+    public static List<ConnectionProfile> loadAll(Path configFile) throws IOException {
+        Properties props = readProperties(configFile);
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : props.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (dot > 0) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        List<ConnectionProfile> profiles = new ArrayList<>();
+        for (String n : names) {
+            profiles.add(fromProperties(props, n));
+        }
+        return profiles;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static Properties readProperties(Path configFile) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        return props;
+    }
+
+    private static ConnectionProfile fromProperties(Properties props, String profileName) {
+        ConnectionProfile profile = new ConnectionProfile(profileName);
+        String prefix = profileName + ".";
+
+        // "all" first so role-specific keys override it
+        for (String role : new String[] { "all", "writer", "reader" }) {
+            for (String key : new TreeSet<>(props.stringPropertyNames())) {
+                if (!key.startsWith(prefix + role + ".")) {
+                    continue;
+                }
+                String pragma = key.substring((prefix + role + ".").length());
+                String value = props.getProperty(key).trim();
+                if (!SUPPORTED_PRAGMAS.contains(pragma)) {
+                    throw new IllegalArgumentException("Unsupported PRAGMA '" + pragma + "' in " + key);
+                }
+                if (!value.matches("-?[A-Za-z0-9_]+")) {
+                    throw new IllegalArgumentException("Invalid value '" + value + "' for " + key);
+                }
+                if (!role.equals("reader")) {
+                    profile.writerPragmas.put(pragma, value);
+                }
+                if (!role.equals("writer")) {
+                    profile.readerPragmas.put(pragma, value);
+                }
+            }
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,149 @@
+package sql;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints rows as a fixed-width table through one buffered writer.
+ *
+ * Column widths are computed from the header and the first
+ * {@link #SAMPLE_ROWS} rows, which are held back until the widths are known;
+ * later rows are written straight through with the same widths, so memory
+ * use does not grow with the result. A value wider than its column is
+ * written in full rather than cut off.
+ */
+public final class ConsoleRenderer implements RowSink {
+
+    /**
+     * Rows used to size the columns.
+     */
+    static final int SAMPLE_ROWS = 100;
+
+    /**
+     * Widest a column is padded to, so one long value (e.g. a comment) does
+     * not push every other row across the screen.
+     */
+    static final int MAX_WIDTH = 40;
+
+    private static final String SEPARATOR = "  ";
+
+    private final Writer out;
+    private String[] columns;
+    private int[] widths;
+    private final List<String[]> sample = new ArrayList<>();
+
+    /**
+     * Renders to the given stream. The stream is flushed, not closed, at the
+     * end of the result.
+     */
+    public ConsoleRenderer(PrintStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), 1 << 16);
+    }
+
+    @Override
+    public void start(String[] columns) {
+        this.columns = columns;
+        this.widths = null;
+        this.sample.clear();
+    }
+
+    @Override
+    public void row(Object[] values) throws SQLException {
+        String[] text = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            text[i] = String.valueOf(values[i]);
+        }
+        if (widths != null) {
+            write(text);
+            return;
+        }
+        sample.add(text);
+        if (sample.size() == SAMPLE_ROWS) {
+            layout();
+        }
+    }
+
+    @Override
+    public void end() throws SQLException {
+        if (widths == null) {
+            layout();
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new SQLException("Error writing results: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prints the rows received before the failure, including any still
+     * held back for sizing.
+     */
+    @Override
+    public void abort() {
+        if (columns == null) {
+            return;
+        }
+        try {
+            end();
+        } catch (SQLException e) {
+            // already failing; report the original error
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Fixes the column widths from the header and sample, then writes the
+     * header, an underline and the sampled rows.
+     */
+    private void layout() throws SQLException {
+        widths = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            widths[i] = Math.min(MAX_WIDTH, columns[i].length());
+        }
+        for (String[] row : sample) {
+            for (int i = 0; i < row.length; i++) {
+                widths[i] = Math.max(widths[i], Math.min(MAX_WIDTH, row[i].length()));
+            }
+        }
+
+        write(columns);
+        String[] underline = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            underline[i] = "-".repeat(Math.max(1, widths[i]));
+        }
+        write(underline);
+
+        for (String[] row : sample) {
+            write(row);
+        }
+        sample.clear();
+    }
+
+    private void write(String[] row) throws SQLException {
+        try {
+            for (int i = 0; i < row.length; i++) {
+                out.write(row[i]);
+                if (i < row.length - 1) {
+                    for (int pad = row[i].length(); pad < widths[i]; pad++) {
+                        out.write(' ');
+                    }
+                    out.write(SEPARATOR);
+                }
+            }
+            out.write('\n');
+        } catch (IOException e) {
+            throw new SQLException("Error writing results: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package sql;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array.
+ */
+final class IntColumn {
+    // Read directly by scans; only the first size() entries are valid
+    int[] data;
+    private int size = 0;
+
+    IntColumn() {
+        this(1024);
+    }
+
+    IntColumn(int capacity) {
+        data = new int[Math.max(1, capacity)];
+    }
+
+    void add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size++] = value;
+    }
+
+    int get(int i) {
+        return data[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copy of the values, exactly {@link #size()} long.
+     */
+    int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
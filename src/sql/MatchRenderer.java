@@ -0,0 +1,280 @@
+package sql;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Renders search results as a fixed-width table with every occurrence of
+ * the search text highlighted, working on the UTF-8 bytes of each value.
+ *
+ * Values are read with ResultSet.getBytes, which SQLite hands over as the
+ * stored UTF-8 text, and copied straight into a byte buffer; no String,
+ * char[] or StringBuilder is made per cell. Matching folds ASCII letters
+ * only, which is exactly how SQLite's LIKE compares, so every highlight
+ * is one LIKE found. Rows are written through one buffered stream as they
+ * are read, and the scratch space for a row is reused for the next, so
+ * memory use does not grow with the number of matching rows.
+ *
+ * Layout follows {@link ConsoleRenderer}: widths come from the header and
+ * the first {@link ConsoleRenderer#SAMPLE_ROWS} rows, capped at
+ * {@link ConsoleRenderer#MAX_WIDTH} characters.
+ */
+public final class MatchRenderer {
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "  ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HIGHLIGHT_ON = "\u001b[7m".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HIGHLIGHT_OFF = "\u001b[0m".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] needle;
+    private final boolean highlight;
+
+    private final OutputStream out;
+
+    // Scratch space for held-back sample rows (or the current row)
+    private byte[] cells = new byte[1 << 12];
+    private int cellsSize = 0;
+    private int[] cellStart = new int[64];
+    private int[] cellEnd = new int[64];
+    private int[] cellWidth = new int[64];
+
+    private int rowCount = 0;
+
+    /**
+     * @param text      the search text (as given to LIKE '%text%')
+     * @param highlight true to mark matches with terminal reverse video;
+     *                  false for plain output (e.g. not a terminal)
+     * @param stream    where the table is written; flushed, not closed, at
+     *                  the end of each result
+     */
+    public MatchRenderer(String text, boolean highlight, OutputStream stream) {
+        this.out = new BufferedOutputStream(stream, 1 << 16);
+        this.needle = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < needle.length; i++) {
+            needle[i] = lower(needle[i]);
+        }
+        this.highlight = highlight && needle.length > 0;
+    }
+
+    /**
+     * Reads and renders every remaining row. Does not close the ResultSet.
+     *
+     * @param heading line written above the table, only if there is at
+     *                least one row; null for none
+     * @return the number of rows rendered
+     */
+    public int render(ResultSet rs, String heading) throws SQLException {
+        try {
+            return renderRows(rs, heading);
+        } catch (IOException e) {
+            throw new SQLException("Error writing results: " + e.getMessage(), e);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private int renderRows(ResultSet rs, String heading) throws SQLException, IOException {
+        rowCount = 0;
+        cellsSize = 0;
+        ResultSetMetaData md = rs.getMetaData();
+        int columns = md.getColumnCount();
+        byte[][] header = new byte[columns][];
+        for (int i = 0; i < columns; i++) {
+            header[i] = md.getColumnName(i + 1).getBytes(StandardCharsets.UTF_8);
+        }
+
+        // 1. Hold back a sample to size the columns
+        int sampleRows = 0;
+        boolean more = true;
+        while (sampleRows < ConsoleRenderer.SAMPLE_ROWS && (more = rs.next())) {
+            readRow(rs, columns, sampleRows * columns);
+            sampleRows++;
+        }
+        if (sampleRows == 0) {
+            return 0;
+        }
+        if (heading != null) {
+            out.write(heading.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+
+        int[] widths = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            widths[c] = Math.min(ConsoleRenderer.MAX_WIDTH, displayWidth(header[c], 0, header[c].length));
+            for (int r = 0; r < sampleRows; r++) {
+                widths[c] = Math.max(widths[c], Math.min(ConsoleRenderer.MAX_WIDTH, cellWidth[r * columns + c]));
+            }
+        }
+
+        // 2. Header, underline, sample
+        for (int c = 0; c < columns; c++) {
+            writeCell(header[c], 0, header[c].length, displayWidth(header[c], 0, header[c].length),
+                    widths, c, columns);
+        }
+        for (int c = 0; c < columns; c++) {
+            int w = Math.max(1, widths[c]);
+            for (int i = 0; i < w; i++) {
+                out.write('-');
+            }
+            endCell(w, widths, c, columns);
+        }
+        for (int r = 0; r < sampleRows; r++) {
+            writeRow(r * columns, widths, columns);
+        }
+        rowCount = sampleRows;
+
+        // 3. Remaining rows straight through, reusing the scratch space
+        while (more && rs.next()) {
+            cellsSize = 0;
+            readRow(rs, columns, 0);
+            writeRow(0, widths, columns);
+            rowCount++;
+        }
+        cellsSize = 0;
+        out.flush();
+        return rowCount;
+    }
+
+    /**
+     * Reads one row's values into the scratch space as highlighted cells,
+     * starting at cell slot {@code slot}.
+     */
+    private void readRow(ResultSet rs, int columns, int slot) throws SQLException {
+        ensureSlots(slot + columns);
+        for (int c = 0; c < columns; c++) {
+            byte[] value = rs.getBytes(c + 1);
+            if (value == null) {
+                value = NULL;
+            }
+            cellStart[slot + c] = cellsSize;
+            cellWidth[slot + c] = displayWidth(value, 0, value.length);
+            copyHighlighted(value);
+            cellEnd[slot + c] = cellsSize;
+        }
+    }
+
+    /**
+     * Appends a value to the scratch space, wrapping each match of the
+     * needle in highlight codes.
+     */
+    private void copyHighlighted(byte[] value) {
+        ensureCells(value.length);
+        if (!highlight) {
+            System.arraycopy(value, 0, cells, cellsSize, value.length);
+            cellsSize += value.length;
+            return;
+        }
+        int copied = 0;
+        int at = indexOf(value, 0);
+        while (at >= 0) {
+            ensureCells(value.length - copied + HIGHLIGHT_ON.length + HIGHLIGHT_OFF.length);
+            System.arraycopy(value, copied, cells, cellsSize, at - copied);
+            cellsSize += at - copied;
+            System.arraycopy(HIGHLIGHT_ON, 0, cells, cellsSize, HIGHLIGHT_ON.length);
+            cellsSize += HIGHLIGHT_ON.length;
+            System.arraycopy(value, at, cells, cellsSize, needle.length);
+            cellsSize += needle.length;
+            System.arraycopy(HIGHLIGHT_OFF, 0, cells, cellsSize, HIGHLIGHT_OFF.length);
+            cellsSize += HIGHLIGHT_OFF.length;
+            copied = at + needle.length;
+            at = indexOf(value, copied);
+        }
+        ensureCells(value.length - copied);
+        System.arraycopy(value, copied, cells, cellsSize, value.length - copied);
+        cellsSize += value.length - copied;
+    }
+
+    /**
+     * First match of the needle in value at or after from, comparing ASCII
+     * letters case-insensitively; -1 if none.
+     */
+    private int indexOf(byte[] value, int from) {
+        int last = value.length - needle.length;
+        byte first = needle[0];
+        for (int i = from; i <= last; i++) {
+            if (lower(value[i]) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && lower(value[i + j]) == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void writeRow(int slot, int[] widths, int columns) throws IOException {
+        for (int c = 0; c < columns; c++) {
+            writeCell(cells, cellStart[slot + c], cellEnd[slot + c], cellWidth[slot + c], widths, c, columns);
+        }
+    }
+
+    private void writeCell(byte[] src, int from, int to, int width, int[] widths, int c, int columns)
+            throws IOException {
+        out.write(src, from, to - from);
+        endCell(width, widths, c, columns);
+    }
+
+    /**
+     * Pads the cell just written to its column width and adds the
+     * separator, or ends the line after the last column.
+     */
+    private void endCell(int width, int[] widths, int c, int columns) throws IOException {
+        if (c == columns - 1) {
+            out.write('\n');
+            return;
+        }
+        for (int pad = widths[c] - width; pad > 0; pad--) {
+            out.write(' ');
+        }
+        out.write(SEPARATOR);
+    }
+
+    /**
+     * Characters in a UTF-8 range: every byte that does not continue a
+     * multi-byte sequence.
+     */
+    private static int displayWidth(byte[] b, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if ((b[i] & 0xC0) != 0x80) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private void ensureCells(int extra) {
+        if (cellsSize + extra > cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, cellsSize + extra));
+        }
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots > cellStart.length) {
+            int n = Math.max(cellStart.length * 2, slots);
+            cellStart = Arrays.copyOf(cellStart, n);
+            cellEnd = Arrays.copyOf(cellEnd, n);
+            cellWidth = Arrays.copyOf(cellWidth, n);
+        }
+    }
+}
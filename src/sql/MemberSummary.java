@@ -0,0 +1,177 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Per-member rental totals kept current by triggers.
+ *
+ * Member_Summary holds one row per member: number of rentals, rentals not
+ * yet returned, total fees and the latest checkout or return date seen.
+ * AFTER INSERT / UPDATE / DELETE triggers on Rental_Transaction apply each
+ * change as it is written (by this program or any other SQLite client), so
+ * reading a member's summary is a single primary key lookup no matter how
+ * long their history is.
+ *
+ * Totals cover archived rentals too: {@link Archive} adds each chunk of
+ * rentals it moves back to the summary in the same transaction as the
+ * delete, cancelling out the delete trigger.
+ */
+public final class MemberSummary {
+
+    public static final String TABLE = "Member_Summary";
+
+    /**
+     * Switch table from earlier versions, whose triggers archiving turned
+     * off with a committed flag. A summary that still has it is rebuilt.
+     */
+    private static final String CONTROL_TABLE = "Member_Summary_Control";
+
+    /**
+     * Composite index behind the member timeline: one member's rentals in
+     * checkout order.
+     */
+    public static final String TIMELINE_INDEX = "idx_rental_member_checkout";
+
+    // Private constructor to prevent instantiation
+    private MemberSummary() {
+    }
+
+    /**
+     * Creates the summary table, its triggers and the timeline index if they
+     * do not exist yet. The first time, the summary is filled from all
+     * rentals (hot and archived). A summary from an earlier version, whose
+     * triggers may have been left switched off, is rebuilt once.
+     *
+     * @param conn the shared (writer) connection
+     */
+    public static synchronized void ensure(Connection conn) throws SQLException {
+        WritePolicy.execute(conn, c -> {
+            try (Statement stmt = c.createStatement()) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + TIMELINE_INDEX
+                        + " ON Rental_Transaction (member_id, checkout_date, rental_id);");
+                if (Archive.getArchivedThrough() != null) {
+                    stmt.executeUpdate("CREATE INDEX IF NOT EXISTS archive." + TIMELINE_INDEX
+                            + " ON Rental_Transaction (member_id, checkout_date, rental_id);");
+                }
+            }
+            return null;
+        });
+        if (!hasTable(conn, CONTROL_TABLE) && exists(conn)) {
+            return;
+        }
+
+        // Checked again under the write lock, in case another program built it
+        String built = WritePolicy.execute(conn, MemberSummary::build);
+        if (built != null) {
+            System.out.println(built);
+        }
+    }
+
+    /**
+     * Builds (or rebuilds) the summary inside the caller's transaction.
+     *
+     * @return what was done, or null if it was already current
+     */
+    private static String build(Connection conn) throws SQLException {
+        boolean outdated = hasTable(conn, CONTROL_TABLE);
+        if (!outdated && exists(conn)) {
+            return null;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            if (outdated) {
+                stmt.executeUpdate("DROP TRIGGER IF EXISTS member_summary_insert;");
+                stmt.executeUpdate("DROP TRIGGER IF EXISTS member_summary_delete;");
+                stmt.executeUpdate("DROP TRIGGER IF EXISTS member_summary_update;");
+                stmt.executeUpdate("DROP TABLE " + CONTROL_TABLE + ";");
+                stmt.executeUpdate("DROP TABLE IF EXISTS " + TABLE + ";");
+            }
+            stmt.executeUpdate("CREATE TABLE " + TABLE + " ("
+                    + "member_id INT PRIMARY KEY, rentals INT NOT NULL, open_rentals INT NOT NULL, "
+                    + "total_fees DECIMAL (12, 2) NOT NULL, last_activity DATE);");
+
+            stmt.executeUpdate("INSERT INTO " + TABLE + " "
+                    + "SELECT member_id, COUNT(*), SUM(return_date IS NULL), COALESCE(SUM(rental_fee), 0), "
+                    + "NULLIF(MAX(COALESCE(MAX(checkout_date), ''), COALESCE(MAX(return_date), '')), '') "
+                    + "FROM " + Archive.spanning("Rental_Transaction", null) + " "
+                    + "WHERE member_id IS NOT NULL GROUP BY member_id;");
+
+            stmt.executeUpdate("CREATE TRIGGER member_summary_insert AFTER INSERT ON Rental_Transaction "
+                    + "BEGIN " + add("NEW") + " END;");
+            stmt.executeUpdate("CREATE TRIGGER member_summary_delete AFTER DELETE ON Rental_Transaction "
+                    + "BEGIN " + subtract("OLD") + " END;");
+            stmt.executeUpdate("CREATE TRIGGER member_summary_update AFTER UPDATE ON Rental_Transaction "
+                    + "BEGIN " + subtract("OLD") + " " + add("NEW") + " END;");
+        }
+        return outdated ? "Member summary rebuilt." : "Member summary built.";
+    }
+
+    /**
+     * Statement that adds the main rentals whose rowids the given subquery
+     * selects back to their members' totals. Run just before deleting those
+     * rows (to move them elsewhere) in the same transaction, it cancels out
+     * the delete trigger, so the summary never misses a change written
+     * meanwhile by another connection.
+     *
+     * @param rowids SELECT of main.Rental_Transaction rowids; its parameters
+     *               are the statement's parameters
+     */
+    static String retainSql(String rowids) {
+        return "INSERT INTO " + TABLE + " (member_id, rentals, open_rentals, total_fees, last_activity) "
+                + "SELECT member_id, COUNT(*), SUM(return_date IS NULL), COALESCE(SUM(rental_fee), 0), NULL "
+                + "FROM main.Rental_Transaction WHERE rowid IN (" + rowids + ") AND member_id IS NOT NULL "
+                + "GROUP BY member_id "
+                + "ON CONFLICT (member_id) DO UPDATE SET "
+                + "rentals = rentals + excluded.rentals, "
+                + "open_rentals = open_rentals + excluded.open_rentals, "
+                + "total_fees = total_fees + excluded.total_fees;";
+    }
+
+    /**
+     * Returns true if the summary table has been created.
+     */
+    static boolean exists(Connection conn) throws SQLException {
+        return hasTable(conn, TABLE);
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static boolean hasTable(Connection conn, String name) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM main.sqlite_master "
+                     + "WHERE type = 'table' AND name = '" + name + "';")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Trigger statement adding one rental row (NEW or OLD) to its member.
+     */
+    private static String add(String row) {
+        return "INSERT INTO " + TABLE + " (member_id, rentals, open_rentals, total_fees, last_activity) "
+                + "VALUES (" + row + ".member_id, 1, " + row + ".return_date IS NULL, "
+                + "COALESCE(" + row + ".rental_fee, 0), "
+                + "NULLIF(MAX(COALESCE(" + row + ".checkout_date, ''), COALESCE(" + row + ".return_date, '')), '')) "
+                + "ON CONFLICT (member_id) DO UPDATE SET "
+                + "rentals = rentals + 1, "
+                + "open_rentals = open_rentals + excluded.open_rentals, "
+                + "total_fees = total_fees + excluded.total_fees, "
+                + "last_activity = NULLIF(MAX(COALESCE(last_activity, ''), COALESCE(excluded.last_activity, '')), '');";
+    }
+
+    /**
+     * Trigger statement removing one rental row from its member. The last
+     * activity date is left as is: it is the latest date ever recorded.
+     */
+    private static String subtract(String row) {
+        return "UPDATE " + TABLE + " SET "
+                + "rentals = rentals - 1, "
+                + "open_rentals = open_rentals - (" + row + ".return_date IS NULL), "
+                + "total_fees = total_fees - COALESCE(" + row + ".rental_fee, 0) "
+                + "WHERE member_id = " + row + ".member_id;";
+    }
+}
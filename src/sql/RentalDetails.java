@@ -0,0 +1,264 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the full context of rentals in one pass: the rental row, its member,
+ * its equipment, the delivery and return drone assignments, and the
+ * member's reviews of that equipment.
+ *
+ * Each related table is read with one set-based "WHERE key IN (...)" query
+ * for all requested rentals, following the foreign keys from
+ * Rental_Transaction, so loading N rentals costs the same six queries as
+ * loading one (per chunk of {@link #CHUNK_SIZE} ids) instead of 5N lookups.
+ *
+ * Members and equipment are shared by many rentals and change rarely, so
+ * they can be cached by key. The cache is off by default: it is dropped for
+ * a table as soon as this program's write paths commit a change to it, but
+ * it cannot see changes made by other programs.
+ */
+public final class RentalDetails {
+
+    /**
+     * Ids bound per IN list; well below SQLite's host parameter limit.
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /*
+     * The six lookups, each completed by an IN list (see inListSql). The
+     * rental and review lookups also read the archive when one exists.
+     */
+    public static final String RENTALS_SQL = "SELECT * FROM Rental_Transaction WHERE rental_id IN ";
+    public static final String MEMBERS_SQL = "SELECT * FROM Community_Member WHERE member_id IN ";
+    public static final String EQUIPMENT_SQL = "SELECT * FROM Equipment WHERE equipment_id IN ";
+    public static final String DELIVERIES_SQL = "SELECT * FROM Drone_Performs_Delivery WHERE rental_id IN ";
+    public static final String RETURNS_SQL = "SELECT * FROM Drone_Performs_Return WHERE rental_id IN ";
+    public static final String REVIEWS_SQL = "SELECT * FROM Rating_and_Review WHERE member_id IN ";
+
+    /**
+     * One rental and the rows related to it. Rows are column name -> value.
+     */
+    public static final class Detail {
+        public final Map<String, String> rental;
+        public Map<String, String> member;
+        public Map<String, String> equipment;
+        public final List<Map<String, String>> deliveries = new ArrayList<>();
+        public final List<Map<String, String>> returns = new ArrayList<>();
+        public final List<Map<String, String>> reviews = new ArrayList<>();
+
+        Detail(Map<String, String> rental) {
+            this.rental = rental;
+        }
+    }
+
+    private static boolean cacheEnabled = false;
+
+    /**
+     * Cached rows keyed by table name (lower case), then primary key value.
+     */
+    private static final Map<String, Map<String, Map<String, String>>> cache = new HashMap<>();
+
+    static {
+        ChangeLog.addListener(change -> invalidate(change.table));
+    }
+
+    // Private constructor to prevent instantiation
+    private RentalDetails() {
+    }
+
+    public static synchronized void setCacheEnabled(boolean enabled) {
+        cacheEnabled = enabled;
+        cache.clear();
+    }
+
+    public static synchronized boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public static synchronized void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Loads details for the given rental ids, in the order given. Ids with no
+     * rental are left out of the result.
+     *
+     * @param conn      a read connection
+     * @param rentalIds rental_id values
+     * @return rental_id -> detail
+     */
+    public static Map<String, Detail> load(Connection conn, Collection<String> rentalIds)
+            throws SQLException {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(rentalIds));
+        Map<String, Detail> details = new LinkedHashMap<>();
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            loadChunk(conn, ids.subList(from, Math.min(ids.size(), from + CHUNK_SIZE)), details);
+        }
+        return details;
+    }
+
+    /**
+     * prefix (?, ?, ...) with count parameters.
+     */
+    public static String inListSql(String prefix, int count) {
+        StringBuilder sb = new StringBuilder(prefix).append('(');
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.append(");").toString();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static void loadChunk(Connection conn, List<String> ids, Map<String, Detail> details)
+            throws SQLException {
+        // 1. The rentals themselves (hot or archived)
+        Map<String, Detail> chunk = new LinkedHashMap<>();
+        for (Map<String, String> row : selectIn(conn, Archive.spanning(RENTALS_SQL, null), ids)) {
+            chunk.put(row.get("rental_id"), new Detail(row));
+        }
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        Set<String> memberIds = new LinkedHashSet<>();
+        Set<String> equipmentIds = new LinkedHashSet<>();
+        for (Detail d : chunk.values()) {
+            memberIds.add(d.rental.get("member_id"));
+            equipmentIds.add(d.rental.get("equipment_id"));
+        }
+
+        // 2-3. Parents, through the per-entity cache
+        Map<String, Map<String, String>> members =
+                parents(conn, MEMBERS_SQL, "Community_Member", "member_id", memberIds);
+        Map<String, Map<String, String>> equipment =
+                parents(conn, EQUIPMENT_SQL, "Equipment", "equipment_id", equipmentIds);
+
+        List<String> rentalKeys = new ArrayList<>(chunk.keySet());
+
+        // 4-5. Drone assignments
+        for (Map<String, String> row : selectIn(conn, DELIVERIES_SQL, rentalKeys)) {
+            chunk.get(row.get("rental_id")).deliveries.add(row);
+        }
+        for (Map<String, String> row : selectIn(conn, RETURNS_SQL, rentalKeys)) {
+            chunk.get(row.get("rental_id")).returns.add(row);
+        }
+
+        // 6. Reviews by these members; kept only where the equipment matches
+        List<Map<String, String>> reviews = selectIn(conn, Archive.spanning(REVIEWS_SQL, null),
+                new ArrayList<>(memberIds));
+
+        for (Detail d : chunk.values()) {
+            String memberId = d.rental.get("member_id");
+            String equipmentId = d.rental.get("equipment_id");
+            d.member = members.get(memberId);
+            d.equipment = equipment.get(equipmentId);
+            for (Map<String, String> review : reviews) {
+                if (memberId.equals(review.get("member_id"))
+                        && equipmentId.equals(review.get("equipment_id"))) {
+                    d.reviews.add(review);
+                }
+            }
+        }
+
+        // Keep the caller's order; ids written differently (e.g. "007")
+        // still match in SQL, so add those afterwards
+        for (String id : ids) {
+            Detail d = chunk.get(id);
+            if (d != null) {
+                details.put(id, d);
+            }
+        }
+        for (Map.Entry<String, Detail> e : chunk.entrySet()) {
+            details.putIfAbsent(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Rows of a parent table by key, reading only keys that are not cached.
+     */
+    private static Map<String, Map<String, String>> parents(Connection conn, String prefix, String table,
+                                                            String keyColumn, Set<String> keys)
+            throws SQLException {
+        Map<String, Map<String, String>> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (RentalDetails.class) {
+            Map<String, Map<String, String>> cached = cache.get(table.toLowerCase());
+            for (String key : keys) {
+                Map<String, String> row = cached == null ? null : cached.get(key);
+                if (row != null) {
+                    found.put(key, row);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        List<Map<String, String>> rows = selectIn(conn, prefix, missing);
+        synchronized (RentalDetails.class) {
+            Map<String, Map<String, String>> cached = cacheEnabled
+                    ? cache.computeIfAbsent(table.toLowerCase(), t -> new HashMap<>()) : null;
+            for (Map<String, String> row : rows) {
+                found.put(row.get(keyColumn), row);
+                if (cached != null) {
+                    cached.put(row.get(keyColumn), row);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Runs "prefix (?, ?, ...)" with one parameter per value and returns the
+     * rows as column name -> value maps.
+     */
+    private static List<Map<String, String>> selectIn(Connection conn, String prefix, List<String> values)
+            throws SQLException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (values.isEmpty()) {
+            return rows;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(inListSql(prefix, values.size()))) {
+            for (int i = 0; i < values.size(); i++) {
+                ps.setString(i + 1, values.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int columnCount = rsmd.getColumnCount();
+                while (rs.next()) {
+                    Map<String, String> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= columnCount; i++) {
+                        row.put(rsmd.getColumnName(i), rs.getString(i));
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops the cached rows of a table. Called by the write paths once a
+     * change to it has committed.
+     */
+    public static synchronized void invalidate(String table) {
+        cache.remove(table.toLowerCase());
+    }
+}
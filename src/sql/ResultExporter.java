@@ -0,0 +1,343 @@
+package sql;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes query results to files instead of the console, as CSV, gzipped
+ * CSV or JSON Lines.
+ *
+ * Once a format is selected with {@link #setDestination(Format, Path)},
+ * callers check {@link #isActive()} and send their rows to
+ * {@link #export(ResultSet, String)} or a {@link #sink(String)}. Each
+ * result goes to a new file named after its label and the time. Rows are
+ * streamed through one buffer, so large results do not use more memory;
+ * a result that fails partway leaves no file behind.
+ */
+public final class ResultExporter {
+
+    /**
+     * Supported export file formats.
+     */
+    public enum Format {
+        CSV(".csv"),
+        JSON_LINES(".jsonl"),
+        CSV_GZIP(".csv.gz");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Write buffer size. Rows are streamed through it, so memory use does not
+     * grow with the number of rows.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Current export format, or null when results go to the console.
+     */
+    private static Format format = null;
+
+    /**
+     * Directory export files are written to.
+     */
+    private static Path directory = Paths.get("exports");
+
+    /**
+     * Used to keep file names unique within the same millisecond.
+     */
+    private static int fileCounter = 0;
+
+    // Private constructor to prevent instantiation
+    private ResultExporter() {
+    }
+
+    /**
+     * Sends all following query results to files in the given format and
+     * directory. Pass a null format to go back to console output.
+     */
+    public static void setDestination(Format newFormat, Path newDirectory) {
+        format = newFormat;
+        if (newDirectory != null) {
+            directory = newDirectory;
+        }
+    }
+
+    /**
+     * Returns true when query results should be exported instead of printed.
+     */
+    public static boolean isActive() {
+        return format != null;
+    }
+
+    public static Format getFormat() {
+        return format;
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Streams all rows of a ResultSet into a new export file.
+     *
+     * @param rs    the result set, positioned before the first row
+     * @param label short name used as the file name prefix (e.g. a table name)
+     * @return the number of rows written
+     */
+    public static int export(ResultSet rs, String label) throws SQLException {
+        return SQL.drain(rs, sink(label));
+    }
+
+    /**
+     * Returns a RowSink that writes the rows it receives to a new export file
+     * in the current format. The file is created when the rows start and
+     * closed when they end.
+     *
+     * @param label short name used as the file name prefix (e.g. a table name)
+     */
+    public static RowSink sink(String label) {
+        if (format == null) {
+            throw new IllegalStateException("No export format selected.");
+        }
+        return new FileSink(format, nextFile(label));
+    }
+
+    /**
+     * Writes rows to one export file.
+     */
+    private static final class FileSink implements RowSink {
+        private final Format fileFormat;
+        private final Path file;
+        private Writer out;
+        private String[] jsonKeys;
+        private final StringBuilder line = new StringBuilder(256);
+        private int rows = 0;
+
+        FileSink(Format fileFormat, Path file) {
+            this.fileFormat = fileFormat;
+            this.file = file;
+        }
+
+        @Override
+        public void start(String[] columns) throws SQLException {
+            try {
+                out = openWriter(fileFormat, file);
+                if (fileFormat == Format.JSON_LINES) {
+                    jsonKeys = new String[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        StringBuilder sb = new StringBuilder();
+                        appendJsonString(sb, columns[i]);
+                        jsonKeys[i] = sb.append(':').toString();
+                    }
+                } else {
+                    // Header row (column names)
+                    for (int i = 0; i < columns.length; i++) {
+                        writeCsvField(out, columns[i]);
+                        out.write(i < columns.length - 1 ? ',' : '\n');
+                    }
+                }
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public void row(Object[] values) throws SQLException {
+            try {
+                if (fileFormat == Format.JSON_LINES) {
+                    writeJsonLine(values);
+                } else {
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] != null) {
+                            writeCsvField(out, values[i].toString());
+                        }
+                        out.write(i < values.length - 1 ? ',' : '\n');
+                    }
+                }
+                rows++;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public void end() throws SQLException {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            System.out.println(rows + " row(s) exported to " + file + ".");
+        }
+
+        /**
+         * Closes the file (so its handle is released) and deletes it, since
+         * it holds only part of the result.
+         */
+        @Override
+        public void abort() {
+            close();
+            try {
+                if (Files.deleteIfExists(file)) {
+                    System.out.println("Export to " + file + " stopped after " + rows
+                            + " row(s); the incomplete file was deleted.");
+                }
+            } catch (IOException e) {
+                System.out.println("Export to " + file + " is incomplete and could not be deleted: "
+                        + e.getMessage());
+            }
+        }
+
+        private void writeJsonLine(Object[] values) throws IOException {
+            line.setLength(0);
+            line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(jsonKeys[i]);
+                Object value = values[i];
+                if (value == null || isNonFinite(value)) {
+                    // JSON has no NaN or Infinity
+                    line.append("null");
+                } else if (value instanceof Number) {
+                    line.append(value);
+                } else {
+                    appendJsonString(line, value.toString());
+                }
+            }
+            line.append("}\n");
+            out.append(line);
+        }
+
+        private void close() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // already failing; report the original error
+            }
+        }
+
+        private SQLException failed(IOException e) {
+            return new SQLException("Error writing export file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Writers
+     */
+
+    private static Writer openWriter(Format fileFormat, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        if (fileFormat == Format.CSV_GZIP) {
+            return new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE),
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static boolean isNonFinite(Object value) {
+        if (value instanceof Double) {
+            return !Double.isFinite((Double) value);
+        }
+        if (value instanceof Float) {
+            return !Float.isFinite((Float) value);
+        }
+        return false;
+    }
+
+    /**
+     * Writes one CSV field, quoting it only when it contains a separator,
+     * quote or line break (RFC 4180).
+     */
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                needsQuotes = true;
+                break;
+            }
+        }
+        if (!needsQuotes) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Builds a unique export file name: label_yyyyMMdd_HHmmss_n.ext
+     */
+    private static synchronized Path nextFile(String label) {
+        String safeLabel = (label == null || label.isEmpty())
+                ? "results" : label.replaceAll("[^A-Za-z0-9_-]", "_");
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        fileCounter++;
+        return directory.resolve(safeLabel + "_" + stamp + "_" + fileCounter + format.getExtension());
+    }
+}
@@ -0,0 +1,258 @@
+package sql;
+
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fully read query result: column names and rows of string values.
+ *
+ * Unlike a ResultSet it does not hold a connection or cursor open, so it can
+ * be handed between threads, kept, and replayed into any {@link RowSink}
+ * after the query has finished (see {@link AsyncQueries}).
+ *
+ * Columns with few distinct values (wrhs_address, manufacturer, type,
+ * status) are dictionary-encoded: each distinct value is stored once, and
+ * each cell is an int code into the column's dictionary, so a cell costs
+ * four bytes instead of an array slot and a String of its own (about 45
+ * bytes for a short value). The driver's value is the dictionary key, so it
+ * is turned into a String once per distinct value, not once per cell.
+ * A column that passes {@link #DICTIONARY_LIMIT} distinct values (ids,
+ * names, dates) would gain nothing, since every cell is its own String
+ * anyway, and the lookup map costs about 50 more bytes per entry; it is
+ * switched to a plain String array instead.
+ */
+public final class ResultTable {
+
+    /**
+     * Most distinct non-null values a column keeps in a dictionary.
+     */
+    static final int DICTIONARY_LIMIT = 256;
+
+    /**
+     * RowSink that keeps every row, for building a ResultTable from a query.
+     */
+    public static final class Collector implements RowSink {
+        private String[] columns = new String[0];
+        // Per column, either a dictionary and codes, or plain values
+        private StringDictionary[] dictionaries = new StringDictionary[0];
+        private IntColumn[] codes = new IntColumn[0];
+        private String[][] plain = new String[0][];
+        private int rowCount = 0;
+
+        @Override
+        public void start(String[] columns) {
+            this.columns = columns;
+            this.dictionaries = new StringDictionary[columns.length];
+            this.codes = new IntColumn[columns.length];
+            this.plain = new String[columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                dictionaries[i] = new StringDictionary();
+                codes[i] = new IntColumn(256);
+            }
+            this.rowCount = 0;
+        }
+
+        @Override
+        public void row(Object[] values) {
+            for (int i = 0; i < columns.length; i++) {
+                Object value = i < values.length ? values[i] : null;
+                if (plain[i] != null) {
+                    if (rowCount == plain[i].length) {
+                        plain[i] = Arrays.copyOf(plain[i], rowCount * 2);
+                    }
+                    plain[i][rowCount] = value == null ? null : value.toString();
+                    continue;
+                }
+                codes[i].add(dictionaries[i].encode(value));
+                if (dictionaries[i].size() > DICTIONARY_LIMIT + 1) {
+                    unencode(i);
+                }
+            }
+            rowCount++;
+        }
+
+        @Override
+        public void end() {
+        }
+
+        public ResultTable getTable() {
+            String[][] decode = new String[columns.length][];
+            int[][] cells = new int[columns.length][];
+            String[][] values = new String[columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                if (plain[i] != null) {
+                    values[i] = Arrays.copyOf(plain[i], rowCount);
+                } else {
+                    decode[i] = dictionaries[i].toArray();
+                    cells[i] = codes[i].toArray();
+                }
+            }
+            return new ResultTable(columns, decode, cells, values, rowCount);
+        }
+
+        /**
+         * Switches a column to plain values, decoding the rows so far
+         * (including the current one).
+         */
+        private void unencode(int column) {
+            String[] decode = dictionaries[column].toArray();
+            String[] values = new String[Math.max(256, (rowCount + 1) * 2)];
+            for (int r = 0; r <= rowCount; r++) {
+                values[r] = decode[codes[column].get(r)];
+            }
+            plain[column] = values;
+            dictionaries[column] = null;
+            codes[column] = null;
+        }
+    }
+
+    private final String[] columns;
+
+    /**
+     * Per encoded column: code -> value (code 0 is null); null for a plain
+     * column.
+     */
+    private final String[][] dictionaries;
+
+    /**
+     * Per encoded column: row -> code; null for a plain column.
+     */
+    private final int[][] codes;
+
+    /**
+     * Per plain column: row -> value; null for an encoded column.
+     */
+    private final String[][] plain;
+
+    private final int rowCount;
+
+    /**
+     * Builds a table from rows already in memory (encoding them).
+     */
+    public ResultTable(String[] columns, List<String[]> rows) {
+        Collector collector = new Collector();
+        collector.start(columns);
+        for (String[] row : rows) {
+            collector.row(row);
+        }
+        ResultTable table = collector.getTable();
+        this.columns = table.columns;
+        this.dictionaries = table.dictionaries;
+        this.codes = table.codes;
+        this.plain = table.plain;
+        this.rowCount = table.rowCount;
+    }
+
+    private ResultTable(String[] columns, String[][] dictionaries, int[][] codes, String[][] plain,
+                        int rowCount) {
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+        this.codes = codes;
+        this.plain = plain;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Reads every remaining row of a ResultSet. Does not close it.
+     */
+    public static ResultTable from(ResultSet rs) throws SQLException {
+        Collector collector = new Collector();
+        SQL.drain(rs, collector);
+        return collector.getTable();
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * The value in one cell (null for SQL NULL).
+     */
+    public String getValue(int row, int column) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        if (plain[column] != null) {
+            return plain[column][row];
+        }
+        return dictionaries[column][codes[column][row]];
+    }
+
+    /**
+     * One row, decoded into a new array.
+     */
+    public String[] getRow(int row) {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = getValue(row, i);
+        }
+        return values;
+    }
+
+    /**
+     * Read-only view of the rows; each get decodes a new array.
+     */
+    public List<String[]> getRows() {
+        return new AbstractList<String[]>() {
+            @Override
+            public String[] get(int index) {
+                return getRow(index);
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
+
+    /**
+     * Replays the header and rows into a sink, aborting it if the sink
+     * fails.
+     *
+     * @return the number of rows sent
+     */
+    public int sendTo(RowSink sink) throws SQLException {
+        boolean ended = false;
+        try {
+            sink.start(columns.clone());
+            for (int r = 0; r < rowCount; r++) {
+                sink.row(getRow(r));
+            }
+            sink.end();
+            ended = true;
+        } finally {
+            if (!ended) {
+                sink.abort();
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Prints the table with a {@link ConsoleRenderer}, like query results.
+     *
+     * @return the number of rows printed
+     */
+    public int print(PrintStream out) {
+        try {
+            return sendTo(new ConsoleRenderer(out));
+        } catch (SQLException e) {
+            // Only raised for I/O errors on the stream
+            out.println(e.getMessage());
+            return 0;
+        }
+    }
+}
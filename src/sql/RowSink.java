@@ -0,0 +1,39 @@
+package sql;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query result, so running a query is separate from
+ * what happens to its rows (printed by {@link ConsoleRenderer}, kept in a
+ * {@link ResultTable}, written by {@link ResultExporter}).
+ *
+ * {@link SQL#drain(java.sql.ResultSet, RowSink)} calls start once, row for
+ * each row, then end; or abort instead of end if reading the rows fails.
+ */
+public interface RowSink {
+
+    /**
+     * Called before the first row with the result's column names.
+     */
+    void start(String[] columns) throws SQLException;
+
+    /**
+     * Called once per row. Values are as returned by ResultSet.getObject
+     * (Integer, Long, Double, String, or null). The array is not reused, so
+     * a sink may keep it.
+     */
+    void row(Object[] values) throws SQLException;
+
+    /**
+     * Called after the last row, including when there were no rows.
+     */
+    void end() throws SQLException;
+
+    /**
+     * Called instead of end when the result could not be read to the end
+     * (or start, row or end failed). Releases whatever the sink holds; must
+     * not throw, so the original error is the one reported.
+     */
+    default void abort() {
+    }
+}
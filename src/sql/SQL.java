@@ -1,13 +1,21 @@
 package sql;
 
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import utilities.EntityDefinition;
+import utilities.StartupTimer;
 
 public final class SQL {
 
@@ -16,6 +24,27 @@ public final class SQL {
      */
     private static Connection conn = null;
 
+    /**
+     * Connection profile (PRAGMA settings) file, read at startup if present.
+     */
+    public static final String PROFILE_CONFIG = "sqlite.properties";
+
+    /**
+     * JDBC URL of the open database, used to open additional connections.
+     */
+    private static String dbUrl = null;
+
+    /**
+     * Long-lived read connection used for queries when warehouse sharding is
+     * enabled (see {@link ShardRouter}). Null otherwise.
+     */
+    private static Connection readConn = null;
+
+    /**
+     * File name of the open database.
+     */
+    private static String databaseFile = null;
+
     // Private constructor to prevent instantiation
     private SQL() {
     }
@@ -35,9 +64,15 @@ public final class SQL {
 
         try {
             conn = DriverManager.getConnection(url);
+            dbUrl = url;
+            databaseFile = databaseFileName;
+            ConnectionProfile.loadActive(Paths.get(PROFILE_CONFIG));
+            ConnectionProfile.getActive().apply(conn, ConnectionProfile.Role.WRITER);
+            WritePolicy.applyDefaultBusyTimeout(conn, ConnectionProfile.getActive());
+            ShardRouter.initialize(conn);
+            Archive.attachIfPresent(conn, databaseFileName);
+            ChangeLog.open(databaseFileName);
             if (conn != null) {
-                DatabaseMetaData meta = conn.getMetaData();
-                System.out.println("The driver name is " + meta.getDriverName());
                 System.out.println("The connection to the database was successful.");
             } else {
                 System.out.println("Null Connection");
@@ -48,6 +83,61 @@ public final class SQL {
         }
     }
 
+    /**
+     * Reads every table's pages once on a background thread while the menu is
+     * shown, so the first real queries find the database file in the
+     * operating system's file cache. Every connection (shared, reader and
+     * AsyncQueries workers) reads through that cache; SQLite's own page cache
+     * is per connection and still fills on each connection's first queries.
+     *
+     * Uses its own read-only connection, closed when done, so it never holds
+     * a read transaction on the shared writer connection. Errors are ignored;
+     * warming is best-effort.
+     */
+    public static void warmUpInBackground() {
+        if (conn == null) {
+            return;
+        }
+        Thread warmer = new Thread(() -> {
+            try (Connection reader = openReadConnection();
+                 Statement stmt = reader.createStatement()) {
+                for (EntityDefinition def : EntityDefinition.values()) {
+                    try {
+                        warmUp(stmt, def.getTableName());
+                    } catch (SQLException e) {
+                        // best-effort
+                    }
+                }
+            } catch (SQLException e) {
+                // best-effort
+            }
+        }, "cache-warmer");
+        warmer.setDaemon(true);
+        warmer.setPriority(Thread.MIN_PRIORITY);
+        warmer.start();
+    }
+
+    /**
+     * Full scan of a table that reads every row to its last column, so every
+     * table page (and any overflow page) is read. COUNT(*) would read only
+     * the smallest index.
+     */
+    private static void warmUp(Statement stmt, String tableName) throws SQLException {
+        String lastColumn = null;
+        try (ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + tableName + ");")) {
+            while (rs.next()) {
+                lastColumn = rs.getString("name");
+            }
+        }
+        if (lastColumn == null) {
+            return;
+        }
+        try (ResultSet rs = stmt.executeQuery("SELECT SUM(LENGTH(CAST(" + lastColumn + " AS BLOB))) "
+                + "FROM main." + tableName + " NOT INDEXED;")) {
+            rs.next();
+        }
+    }
+
     /**
      * Returns the underlying Connection for internal use in this class.
      */
@@ -55,10 +145,82 @@ public final class SQL {
         return conn;
     }
 
+    /**
+     * Opens a separate read-only connection to the same database, for work
+     * that runs alongside the shared connection (e.g. concurrent reports).
+     * The caller is responsible for closing it.
+     */
+    public static Connection openReadConnection() throws SQLException {
+        if (dbUrl == null) {
+            throw new IllegalStateException("Database not initialized. Call SQL.initializeDB(...) first.");
+        }
+        Properties props = new Properties();
+        props.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+        Connection reader = DriverManager.getConnection(dbUrl, props);
+        ConnectionProfile.getActive().apply(reader, ConnectionProfile.Role.READER);
+        if (ShardRouter.isEnabled()) {
+            ShardRouter.attachAll(reader, conn);
+        }
+        Archive.attachIfPresent(reader, databaseFile);
+        return reader;
+    }
+
+    /**
+     * Returns the connection read-only queries (reports, listing, search)
+     * should use. This is the shared connection, unless warehouse sharding
+     * is enabled, in which case it is a read connection that sees the main
+     * database and every shard.
+     *
+     * Returns null (after printing why) if sharding is enabled but the
+     * shards cannot be attached: the shared connection would silently
+     * leave out every sharded row.
+     */
+    public static synchronized Connection getReadConnection() {
+        if (conn == null || !ShardRouter.isEnabled()) {
+            return conn;
+        }
+        if (readConn == null) {
+            try {
+                readConn = openReadConnection();
+            } catch (SQLException e) {
+                System.out.println("Error opening read connection: " + e.getMessage());
+                System.out.println("Warehouse shards could not be attached; reads are unavailable.");
+                return null;
+            }
+        }
+        return readConn;
+    }
+
+    /**
+     * Closes the sharded read connection so the next call to
+     * {@link #getReadConnection()} re-attaches the current set of shards,
+     * and has the {@link AsyncQueries} workers do the same. The analytics
+     * snapshot, loaded from the old set, is dropped.
+     */
+    public static synchronized void resetReadConnection() {
+        AsyncQueries.resetConnections();
+        AnalyticsSnapshot.clear();
+        if (readConn != null) {
+            try {
+                readConn.close();
+            } catch (SQLException e) {
+                System.out.println("Error closing read connection: " + e.getMessage());
+            }
+            readConn = null;
+        }
+    }
+
     /**
      * Close the connection when the program ends.
      */
     public static void closeConnection() {
+        ChangeLog.close();
+        AsyncQueries.shutdown();
+        resetReadConnection();
+        ShardRouter.closeAll();
+        if (WritePolicy.totals().getRetries() > 0) {
+            System.out.println("Writes that waited for the database lock: " + WritePolicy.totals() + ".");
+        }
         if (conn != null) {
             try {
                 conn.close();
@@ -72,14 +234,31 @@ public final class SQL {
     }
 
     /**
-     * Generic INSERT for any table using PreparedStatement.
+     * Generic INSERT for any table using PreparedStatement, run through
+     * {@link WritePolicy} so it waits out another writer's lock.
      *
      * @param tableName the table to insert into
      * @param columns   the column names in order
      * @param values    the values for each column, same order, as Strings
+     *                  (null inserts NULL)
      */
     public static void insertRow(String tableName, String[] columns, String[] values)
             throws SQLException {
+        insertRowIf(tableName, columns, values, null);
+    }
+
+    /**
+     * Same as {@link #insertRow}, but the row is only written if a condition
+     * holds when the write transaction runs, so a check made by another
+     * process in the meantime cannot be missed.
+     *
+     * @param condition       SQL condition (e.g. NOT EXISTS (...)), or null
+     * @param conditionParams values for the condition's ? placeholders
+     * @return 1 if the row was inserted, 0 if not (condition false, or an
+     *         ignored conflict)
+     */
+    public static int insertRowIf(String tableName, String[] columns, String[] values,
+                                  String condition, String... conditionParams) throws SQLException {
 
         if (conn == null) {
             throw new IllegalStateException("Database not initialized. Call SQL.initializeDB(...) first.");
@@ -89,7 +268,60 @@ public final class SQL {
             throw new IllegalArgumentException("Columns and values length mismatch");
         }
 
-        // Build: INSERT INTO tableName (col1, col2, ...) VALUES (?, ?, ...)
+        String sql = condition == null ? insertSql(tableName, columns)
+                : insertIfSql(tableName, columns, condition);
+
+        // Rows of warehouse-scoped tables go to that warehouse's shard.
+        Connection target = conn;
+        String key = "";
+        boolean sharded = ShardRouter.isSharded(tableName);
+        if (sharded) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals("wrhs_address") && values[i] != null) {
+                    target = ShardRouter.connectionFor(conn, values[i]);
+                    key = "wrhs_address=" + values[i] + ", ";
+                }
+            }
+        }
+
+        // Retried while another connection holds the write lock;
+        // returns the new rowid, or -1 if nothing was inserted.
+        WritePolicy.Write<Long> insert = c -> {
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                // For SQLite, we can safely bind everything as strings.
+                for (int i = 0; i < values.length; i++) {
+                    pstmt.setString(i + 1, values[i]);  // 1-based index
+                }
+                for (int i = 0; condition != null && i < conditionParams.length; i++) {
+                    pstmt.setString(values.length + i + 1, conditionParams[i]);
+                }
+                return pstmt.executeUpdate() > 0 ? lastInsertRowId(c) : -1L;
+            }
+        };
+        // Keys of sharded tables must also be unique across main and shards
+        long rowId = sharded
+                ? ShardRouter.insertChecked(target, tableName, columns, values, insert)
+                : WritePolicy.execute(target, insert);
+
+        int rows = rowId == -1 ? 0 : 1;
+        System.out.println(rows + " row(s) inserted into " + tableName + ".");
+
+        if (rows > 0) {
+            RentalDetails.invalidate(tableName);
+            Map<String, String> after = new LinkedHashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                after.put(columns[i], values[i]);
+            }
+            ChangeLog.record(ChangeLog.INSERT, tableName,
+                    key + SchemaRegistry.keyOf(tableName, after, rowId), null, after);
+        }
+        return rows;
+    }
+
+    /**
+     * INSERT INTO tableName (col1, col2, ...) VALUES (?, ?, ...)
+     */
+    public static String insertSql(String tableName, String[] columns) {
         StringBuilder sb = new StringBuilder();
         sb.append("INSERT INTO ").append(tableName).append(" (");
 
@@ -109,17 +341,148 @@ public final class SQL {
             }
         }
         sb.append(");");
+        return sb.toString();
+    }
 
-        String sql = sb.toString();
+    /**
+     * INSERT INTO tableName (col1, col2, ...) SELECT ?, ?, ... WHERE condition
+     */
+    public static String insertIfSql(String tableName, String[] columns, String condition) {
+        String values = insertSql(tableName, columns);
+        int at = values.lastIndexOf(" VALUES (");
+        return values.substring(0, at) + " SELECT " + values.substring(at + " VALUES (".length(), values.length() - 2)
+                + " WHERE " + condition + ";";
+    }
+
+    /**
+     * Returns the rowid of the last row inserted on the given connection.
+     */
+    private static long lastInsertRowId(Connection target) throws SQLException {
+        try (Statement stmt = target.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid();")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    /**
+     * Reads one row by rowid as column name -> value, in column order.
+     * Returns an empty map if the row does not exist.
+     *
+     * @param tableName the table to read from
+     * @param rowId     the SQLite rowid of the row
+     */
+    public static Map<String, String> selectRowById(String tableName, long rowId) throws SQLException {
+        return selectRowById(conn, tableName, rowId);
+    }
+
+    /**
+     * Same as {@link #selectRowById(String, long)} on a specific connection
+     * (e.g. a warehouse shard).
+     */
+    public static Map<String, String> selectRowById(Connection conn, String tableName, long rowId)
+            throws SQLException {
+        Map<String, String> row = new LinkedHashMap<>();
+        String sql = "SELECT * FROM " + tableName + " WHERE rowid = ?;";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, rowId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    ResultSetMetaData rsmd = rs.getMetaData();
+                    for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                        row.put(rsmd.getColumnName(i), rs.getString(i));
+                    }
+                }
+            }
+        }
+        return row;
+    }
+
+    /*
+     * Optimistic (compare-and-set) writes
+     */
+
+    /**
+     * Sets one column of a row, but only if the row still holds exactly the
+     * values the caller read earlier. The earlier read (its before-image)
+     * acts as the row's version stamp, so no lock is held while a user
+     * decides what to change, and a concurrent edit is detected instead of
+     * silently overwritten.
+     *
+     * @param target    the connection holding the row (main or a shard)
+     * @param tableName the table to update
+     * @param rowId     the SQLite rowid of the row
+     * @param expected  column name -> value as read earlier
+     * @param column    the column to set
+     * @param value     the new value
+     * @return 1 if the row was updated, 0 if it changed or was deleted since
+     */
+    public static int updateIfUnchanged(Connection target, String tableName, long rowId,
+                                        Map<String, String> expected, String column, String value)
+            throws SQLException {
+        String sql = updateIfUnchangedSql(tableName, expected.keySet(), column);
+        int rows = WritePolicy.execute(target, c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, value);
+                ps.setLong(2, rowId);
+                bindExpected(ps, 3, expected);
+                return ps.executeUpdate();
+            }
+        });
+        if (rows > 0) {
+            RentalDetails.invalidate(tableName);
+        }
+        return rows;
+    }
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            // For SQLite, we can safely bind everything as strings.
-            for (int i = 0; i < values.length; i++) {
-                pstmt.setString(i + 1, values[i]);  // 1-based index
+    /**
+     * Deletes a row only if it still holds exactly the values the caller
+     * read earlier; see {@link #updateIfUnchanged}.
+     *
+     * @return 1 if the row was deleted, 0 if it changed or was deleted since
+     */
+    public static int deleteIfUnchanged(Connection target, String tableName, long rowId,
+                                        Map<String, String> expected) throws SQLException {
+        String sql = deleteIfUnchangedSql(tableName, expected.keySet());
+        int rows = WritePolicy.execute(target, c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, rowId);
+                bindExpected(ps, 2, expected);
+                return ps.executeUpdate();
             }
+        });
+        if (rows > 0) {
+            RentalDetails.invalidate(tableName);
+        }
+        return rows;
+    }
+
+    public static String updateIfUnchangedSql(String tableName, Collection<String> expectedColumns,
+                                              String column) {
+        return "UPDATE " + tableName + " SET " + column + " = ? WHERE rowid = ?"
+                + unchangedPredicate(expectedColumns) + ";";
+    }
+
+    public static String deleteIfUnchangedSql(String tableName, Collection<String> expectedColumns) {
+        return "DELETE FROM " + tableName + " WHERE rowid = ?" + unchangedPredicate(expectedColumns) + ";";
+    }
+
+    /**
+     * " AND col1 IS ? AND col2 IS ? ..." for every expected column. IS
+     * (rather than =) makes NULL match NULL.
+     */
+    private static String unchangedPredicate(Collection<String> expectedColumns) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : expectedColumns) {
+            sb.append(" AND ").append(column).append(" IS ?");
+        }
+        return sb.toString();
+    }
 
-            int rows = pstmt.executeUpdate();
-            System.out.println(rows + " row(s) inserted into " + tableName + ".");
+    private static void bindExpected(PreparedStatement ps, int firstIndex, Map<String, String> expected)
+            throws SQLException {
+        int i = firstIndex;
+        for (String value : expected.values()) {
+            ps.setString(i++, value);
         }
     }
 
@@ -128,33 +491,70 @@ public final class SQL {
      */
 
     /**
-     * Prints column names and all rows from a ResultSet.
+     * Reads every remaining row of a ResultSet into a sink: start with the
+     * column names, row for each row, then end. If anything fails on the
+     * way, the sink is aborted instead. Does not close the ResultSet.
+     *
+     * @return the number of rows read
      */
-    private static void printResultSet(ResultSet rs) throws SQLException {
+    public static int drain(ResultSet rs, RowSink sink) throws SQLException {
         ResultSetMetaData rsmd = rs.getMetaData();
         int columnCount = rsmd.getColumnCount();
-
-        // Print header row (column names)
+        String[] columns = new String[columnCount];
         for (int i = 1; i <= columnCount; i++) {
-            String value = rsmd.getColumnName(i);
-            System.out.print(value);
-            if (i < columnCount) {
-                System.out.print(",  ");
-            }
+            columns[i - 1] = rsmd.getColumnName(i);
         }
-        System.out.print("\n");
 
-        // Print each row
-        while (rs.next()) {
-            for (int i = 1; i <= columnCount; i++) {
-                String columnValue = rs.getString(i);
-                System.out.print(columnValue);
-                if (i < columnCount) {
-                    System.out.print(",  ");
+        int rows = 0;
+        boolean ended = false;
+        try {
+            sink.start(columns);
+            while (rs.next()) {
+                Object[] values = new Object[columnCount];
+                for (int i = 1; i <= columnCount; i++) {
+                    values[i - 1] = rs.getObject(i);
                 }
+                sink.row(values);
+                rows++;
+            }
+            sink.end();
+            ended = true;
+        } finally {
+            if (!ended) {
+                sink.abort();
             }
-            System.out.print("\n");
         }
+        return rows;
+    }
+
+    /**
+     * Prints column names and all rows from a ResultSet to the given stream,
+     * as a fixed-width table (see {@link ConsoleRenderer}).
+     *
+     * @return the number of rows printed
+     */
+    public static int printResultSet(ResultSet rs, PrintStream out) throws SQLException {
+        return drain(rs, new ConsoleRenderer(out));
+    }
+
+    /**
+     * Returns where query results currently go: an export file when an
+     * export format has been selected in the output settings, otherwise the
+     * console.
+     *
+     * @param label export file name prefix
+     */
+    public static RowSink outputSink(String label) {
+        return ResultExporter.isActive() ? ResultExporter.sink(label) : new ConsoleRenderer(System.out);
+    }
+
+    /**
+     * Prints the ResultSet, or streams it to an export file when an export
+     * format has been selected in the output settings.
+     */
+    private static void outputResultSet(ResultSet rs, String label) throws SQLException {
+        drain(rs, outputSink(label));
+        StartupTimer.queryCompleted();
     }
 
     /**
@@ -166,15 +566,31 @@ public final class SQL {
      * @param sql a SQL SELECT statement that returns rows
      */
     public static void sqlQuery(String sql) {
+        sqlQuery(sql, "results");
+    }
+
+    /**
+     * Same as {@link #sqlQuery(String)}, with a label used to name the export
+     * file when results are being exported.
+     *
+     * @param sql   a SQL SELECT statement that returns rows
+     * @param label export file name prefix (e.g. the table name)
+     */
+    public static void sqlQuery(String sql, String label) {
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
-        try (Statement stmt = conn.createStatement();
+        Connection reader = getReadConnection();
+        if (reader == null) {
+            return;
+        }
+
+        try (Statement stmt = reader.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
 
-            printResultSet(rs);
+            outputResultSet(rs, label);
 
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -193,13 +609,24 @@ public final class SQL {
      * @param ps a PreparedStatement ready to be executed (all parameters set)
      */
     public static void sqlQuery(PreparedStatement ps) {
+        sqlQuery(ps, "results");
+    }
+
+    /**
+     * Same as {@link #sqlQuery(PreparedStatement)}, with a label used to name
+     * the export file when results are being exported.
+     *
+     * @param ps    a PreparedStatement ready to be executed (all parameters set)
+     * @param label export file name prefix (e.g. the report name)
+     */
+    public static void sqlQuery(PreparedStatement ps, String label) {
         if (conn == null) {
             System.out.println("Database not initialized.");
             return;
         }
 
         try (ResultSet rs = ps.executeQuery()) {
-            printResultSet(rs);
+            outputResultSet(rs, label);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
@@ -0,0 +1,305 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import utilities.EntityDefinition;
+
+/**
+ * Column, primary key and foreign key metadata read from the database.
+ *
+ * EntityDefinition only fixes menu order and labels; its column lists have
+ * drifted from the real tables before. The registry reads PRAGMA table_info
+ * and PRAGMA foreign_key_list the first time a table is used (and again
+ * after a restore) and caches the result, so menus and generated SQL use the
+ * columns the database actually has without slowing startup.
+ */
+public final class SchemaRegistry {
+
+    /**
+     * One column as reported by PRAGMA table_info.
+     */
+    public static final class Column {
+        private final String name;
+        private final String type;
+        private final boolean notNull;
+        private final String defaultValue;
+        private final int pkPosition;
+
+        Column(String name, String type, boolean notNull, String defaultValue, int pkPosition) {
+            this.name = name;
+            this.type = type;
+            this.notNull = notNull;
+            this.defaultValue = defaultValue;
+            this.pkPosition = pkPosition;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Declared type, e.g. "VARCHAR (100)"; empty if none was declared.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public boolean isNotNull() {
+            return notNull;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+        /**
+         * 1-based position in the primary key, or 0 if not part of it.
+         */
+        public int getPkPosition() {
+            return pkPosition;
+        }
+
+        /**
+         * True if a value must be supplied on insert.
+         */
+        public boolean isRequired() {
+            return (notNull || pkPosition > 0) && defaultValue == null;
+        }
+    }
+
+    /**
+     * One foreign key column as reported by PRAGMA foreign_key_list.
+     */
+    public static final class ForeignKey {
+        private final String column;
+        private final String referencedTable;
+        private final String referencedColumn;
+
+        ForeignKey(String column, String referencedTable, String referencedColumn) {
+            this.column = column;
+            this.referencedTable = referencedTable;
+            this.referencedColumn = referencedColumn;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public String getReferencedTable() {
+            return referencedTable;
+        }
+
+        public String getReferencedColumn() {
+            return referencedColumn;
+        }
+    }
+
+    /**
+     * Cached metadata for one table.
+     */
+    public static final class TableSchema {
+        private final String name;
+        private final List<Column> columns;
+        private final List<String> primaryKey;
+        private final List<ForeignKey> foreignKeys;
+
+        TableSchema(String name, List<Column> columns, List<ForeignKey> foreignKeys) {
+            this.name = name;
+            this.columns = Collections.unmodifiableList(columns);
+            this.foreignKeys = Collections.unmodifiableList(foreignKeys);
+
+            List<Column> pk = new ArrayList<>();
+            for (Column c : columns) {
+                if (c.getPkPosition() > 0) {
+                    pk.add(c);
+                }
+            }
+            pk.sort((a, b) -> Integer.compare(a.getPkPosition(), b.getPkPosition()));
+            List<String> pkNames = new ArrayList<>();
+            for (Column c : pk) {
+                pkNames.add(c.getName());
+            }
+            this.primaryKey = Collections.unmodifiableList(pkNames);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Column> getColumns() {
+            return columns;
+        }
+
+        public String[] getColumnNames() {
+            String[] names = new String[columns.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = columns.get(i).getName();
+            }
+            return names;
+        }
+
+        public Column getColumn(String columnName) {
+            for (Column c : columns) {
+                if (c.getName().equalsIgnoreCase(columnName)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Primary key column names in key order; empty if the table has none.
+         */
+        public List<String> getPrimaryKey() {
+            return primaryKey;
+        }
+
+        public List<ForeignKey> getForeignKeys() {
+            return foreignKeys;
+        }
+    }
+
+    /**
+     * Table metadata keyed by lower-case table name.
+     */
+    private static final Map<String, TableSchema> tables = new LinkedHashMap<>();
+
+    // Private constructor to prevent instantiation
+    private SchemaRegistry() {
+    }
+
+    /**
+     * Returns metadata for a table, reading it on first use. Returns null if
+     * the table does not exist or the database is not initialized.
+     */
+    public static synchronized TableSchema get(String tableName) {
+        String key = tableName.toLowerCase(Locale.ROOT);
+        TableSchema schema = tables.get(key);
+        if (schema != null) {
+            return schema;
+        }
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            return null;
+        }
+        try {
+            schema = readTable(conn, tableName);
+        } catch (SQLException e) {
+            System.out.println("Error reading schema of " + tableName + ": " + e.getMessage());
+            return null;
+        }
+        if (schema != null) {
+            tables.put(key, schema);
+            reportDrift(tableName, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Drops all cached metadata, e.g. after a restore replaced the database.
+     */
+    public static synchronized void clear() {
+        tables.clear();
+    }
+
+    /**
+     * Column names of an entity's table as they are in the database, falling
+     * back to the EntityDefinition list if the table has not been loaded.
+     */
+    public static String[] columnsFor(EntityDefinition def) {
+        TableSchema schema = get(def.getTableName());
+        return schema != null ? schema.getColumnNames() : def.getAttributes();
+    }
+
+    /**
+     * Primary key column names of a table; empty if unknown or none.
+     */
+    public static List<String> primaryKeyOf(String tableName) {
+        TableSchema schema = get(tableName);
+        return schema != null ? schema.getPrimaryKey() : Collections.<String>emptyList();
+    }
+
+    /**
+     * Builds a change log key such as "rental_id=100004" or
+     * "drone_id=3, rental_id=7" from a row image. The key columns are
+     * preferred because these tables declare INT (not INTEGER) primary keys,
+     * so their rowids can change on VACUUM. Falls back to the given rowid
+     * when the table has no primary key.
+     */
+    public static String keyOf(String tableName, Map<String, String> row, long rowId) {
+        List<String> pk = primaryKeyOf(tableName);
+        if (pk.isEmpty() || row == null) {
+            return "rowid=" + rowId;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String column : pk) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(column).append('=').append(row.get(column));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static TableSchema readTable(Connection conn, String tableName) throws SQLException {
+        List<Column> columns = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tableName + ");")) {
+            while (rs.next()) {
+                columns.add(new Column(rs.getString("name"),
+                        rs.getString("type") == null ? "" : rs.getString("type"),
+                        rs.getInt("notnull") != 0,
+                        rs.getString("dflt_value"),
+                        rs.getInt("pk")));
+            }
+        }
+        if (columns.isEmpty()) {
+            return null;
+        }
+
+        List<ForeignKey> foreignKeys = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_list(" + tableName + ");")) {
+            while (rs.next()) {
+                foreignKeys.add(new ForeignKey(rs.getString("from"), rs.getString("table"),
+                        rs.getString("to")));
+            }
+        }
+        return new TableSchema(tableName, columns, foreignKeys);
+    }
+
+    /**
+     * Reports EntityDefinition columns that the table does not have, so the
+     * drift is visible. Extra database columns are simply used.
+     */
+    private static void reportDrift(String tableName, TableSchema schema) {
+        for (EntityDefinition def : EntityDefinition.values()) {
+            if (!def.getTableName().equalsIgnoreCase(tableName)) {
+                continue;
+            }
+            List<String> missing = new ArrayList<>();
+            for (String attr : def.getAttributes()) {
+                if (schema.getColumn(attr) == null) {
+                    missing.add(attr);
+                }
+            }
+            if (!missing.isEmpty()) {
+                System.out.println("Note: " + tableName + " has no column(s) " + missing
+                        + "; using the database's columns.");
+            }
+        }
+    }
+}
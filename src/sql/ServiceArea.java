@@ -0,0 +1,146 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Distance-aware lookups for delivery scheduling.
+ *
+ * The schema has no coordinates: each member belongs to one warehouse
+ * (Community_Member.wrhs_address) and stores their distance from it
+ * (wrhs_distance). So "members within R of a warehouse" is a range on
+ * (wrhs_address, wrhs_distance), and the warehouse that serves a member is
+ * the one they belong to. Composite indexes make both of these, and the
+ * drones housed at a warehouse, index range scans.
+ */
+public final class ServiceArea {
+
+    private static final String MEMBER_INDEX = "idx_member_wrhs_distance";
+    private static final String DRONE_INDEX = "idx_drone_wrhs_capacity";
+
+    /**
+     * Member's warehouse and distance, and the rented equipment's weight,
+     * for one rental.
+     */
+    public static final String ROUTE_SQL =
+            "SELECT R.rental_id, M.member_id, M.wrhs_address, M.wrhs_distance, E.equipment_id, E.weight "
+            + "FROM Rental_Transaction AS R "
+            + "JOIN Community_Member AS M ON M.member_id = R.member_id "
+            + "LEFT JOIN Equipment AS E ON E.equipment_id = R.equipment_id "
+            + "WHERE R.rental_id = ?;";
+
+    /**
+     * Drones at a warehouse with at least the given capacity.
+     */
+    public static final String DRONES_SQL =
+            "SELECT drone_id, manufacturer, load_capacity FROM Drone "
+            + "WHERE wrhs_address = ? AND load_capacity >= CAST(? AS REAL) "
+            + "ORDER BY load_capacity;";
+
+    /**
+     * A warehouse's members within a distance of it.
+     */
+    public static final String MEMBERS_WITHIN_SQL =
+            "SELECT member_id, f_name, l_name, mbr_address, wrhs_distance "
+            + "FROM Community_Member "
+            + "WHERE wrhs_address = ? AND wrhs_distance <= ? "
+            + "ORDER BY wrhs_distance;";
+
+    private static boolean indexed = false;
+
+    // Private constructor to prevent instantiation
+    private ServiceArea() {
+    }
+
+    /**
+     * Creates the indexes used below if they do not exist yet, in the main
+     * database and in every warehouse shard (members and drones are sharded
+     * by warehouse). Shards created later copy them from main.
+     *
+     * @param conn the shared (writer) connection
+     */
+    public static synchronized void ensureIndexes(Connection conn) throws SQLException {
+        if (indexed) {
+            return;
+        }
+        createIndexes(conn);
+        if (ShardRouter.isEnabled()) {
+            for (String wrhsAddress : ShardRouter.warehouses(conn)) {
+                createIndexes(ShardRouter.connectionFor(conn, wrhsAddress));
+            }
+        }
+        indexed = true;
+    }
+
+    /**
+     * Forgets that the indexes were created, e.g. after a restore replaced
+     * the database.
+     */
+    public static synchronized void clear() {
+        indexed = false;
+    }
+
+    private static void createIndexes(Connection target) throws SQLException {
+        WritePolicy.execute(target, c -> {
+            try (Statement stmt = c.createStatement()) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + MEMBER_INDEX
+                        + " ON Community_Member (wrhs_address, wrhs_distance);");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + DRONE_INDEX
+                        + " ON Drone (wrhs_address, load_capacity);");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Warehouse, distance and equipment weight for a rental's delivery: the
+     * member's warehouse and their distance from it, plus the weight the
+     * drone has to carry. Empty if the rental does not exist.
+     *
+     * Columns: rental_id, member_id, wrhs_address, wrhs_distance, equipment_id, weight
+     */
+    public static ResultTable deliveryRoute(Connection conn, String rentalId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(Archive.spanning(ROUTE_SQL, null))) {
+            ps.setString(1, rentalId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return ResultTable.from(rs);
+            }
+        }
+    }
+
+    /**
+     * Drones housed at a warehouse that can carry at least the given weight,
+     * smallest sufficient capacity first. A null weight matches every drone.
+     *
+     * Columns: drone_id, manufacturer, load_capacity
+     */
+    public static ResultTable dronesFor(Connection conn, String wrhsAddress, String weight)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(DRONES_SQL)) {
+            ps.setString(1, wrhsAddress);
+            ps.setString(2, weight == null ? "0" : weight);
+            try (ResultSet rs = ps.executeQuery()) {
+                return ResultTable.from(rs);
+            }
+        }
+    }
+
+    /**
+     * Members of a warehouse within the given distance of it, nearest first.
+     *
+     * Columns: member_id, f_name, l_name, mbr_address, wrhs_distance
+     */
+    public static ResultTable membersWithin(Connection conn, String wrhsAddress, int radius)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(MEMBERS_WITHIN_SQL)) {
+            ps.setString(1, wrhsAddress);
+            ps.setInt(2, radius);
+            try (ResultSet rs = ps.executeQuery()) {
+                return ResultTable.from(rs);
+            }
+        }
+    }
+}
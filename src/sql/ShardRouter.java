@@ -0,0 +1,421 @@
+package sql;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import utilities.EntityDefinition;
+
+/**
+ * Optional per-warehouse sharding.
+ *
+ * When shards.properties exists and sets enabled=true, rows of every entity
+ * that carries a wrhs_address column are written to a separate database
+ * file for that warehouse, so writes for different warehouses do not queue
+ * behind one another's locks. All other tables stay in the main database.
+ *
+ * Reads are scatter-gather: read connections ATTACH every shard and define
+ * TEMP views named after the sharded tables that UNION ALL the main table
+ * with each shard's copy. Because TEMP names shadow main tables, existing
+ * report and search SQL sees all warehouses without changes.
+ *
+ * The warehouse-to-file mapping is kept in the Shard_Map table of the main
+ * database. SQLite attaches at most 10 databases by default and one is kept
+ * for the archive, so at most {@link #MAX_SHARDS} shards are created. The
+ * Warehouse table itself stays in main: rows are only routed to warehouses
+ * listed there, so a mistyped address cannot create a shard.
+ *
+ * Each file enforces its own primary keys only, so inserts into sharded
+ * tables go through {@link #insertChecked}, which first looks for the key
+ * in main and every shard.
+ */
+public final class ShardRouter {
+
+    public static final String CONFIG_FILE = "shards.properties";
+
+    private static final String SHARD_KEY = "wrhs_address";
+    private static final String MAP_TABLE = "Shard_Map";
+    private static final String WAREHOUSE_TABLE = "Warehouse";
+
+    /**
+     * Most shard files: SQLite's default limit of 10 attached databases,
+     * less one for the archive.
+     */
+    public static final int MAX_SHARDS = 9;
+
+    private static boolean enabled = false;
+    private static Path directory = Paths.get("shards");
+
+    /**
+     * Open writer connection per shard file, keyed by warehouse address.
+     */
+    private static final Map<String, Connection> shardConnections = new LinkedHashMap<>();
+
+    // Private constructor to prevent instantiation
+    private ShardRouter() {
+    }
+
+    /**
+     * Reads shards.properties (enabled, directory) and prepares the
+     * Shard_Map table. Sharding stays off if the file does not exist.
+     */
+    public static synchronized void initialize(Connection mainConn) {
+        Path config = Paths.get(CONFIG_FILE);
+        if (!Files.exists(config)) {
+            return;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(config, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException e) {
+            System.out.println("Could not load " + CONFIG_FILE + ": " + e.getMessage());
+            return;
+        }
+        if (!Boolean.parseBoolean(props.getProperty("enabled", "false").trim())) {
+            return;
+        }
+        directory = Paths.get(props.getProperty("directory", "shards").trim());
+
+        try {
+            WritePolicy.execute(mainConn, c -> {
+                try (Statement stmt = c.createStatement()) {
+                    return stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + MAP_TABLE + " ("
+                            + "shard_no INTEGER PRIMARY KEY, wrhs_address VARCHAR (100) UNIQUE, "
+                            + "file_name VARCHAR (255));");
+                }
+            });
+            Files.createDirectories(directory);
+            enabled = true;
+            System.out.println("Warehouse sharding enabled (" + directory + ").");
+        } catch (SQLException | IOException e) {
+            System.out.println("Could not enable sharding: " + e.getMessage());
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns true if rows of this table are routed to warehouse shards.
+     */
+    public static boolean isSharded(String tableName) {
+        if (!enabled || tableName.equalsIgnoreCase(WAREHOUSE_TABLE)) {
+            return false;
+        }
+        for (EntityDefinition def : EntityDefinition.values()) {
+            if (def.getTableName().equalsIgnoreCase(tableName)) {
+                for (String attr : def.getAttributes()) {
+                    if (attr.equals(SHARD_KEY)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Names of all sharded tables.
+     */
+    public static List<String> shardedTables() {
+        List<String> tables = new ArrayList<>();
+        for (EntityDefinition def : EntityDefinition.values()) {
+            if (isSharded(def.getTableName())) {
+                tables.add(def.getTableName());
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Warehouse address -> shard file name, in shard number order.
+     */
+    public static Map<String, String> shardFiles(Connection mainConn) throws SQLException {
+        Map<String, String> files = new LinkedHashMap<>();
+        try (Statement stmt = mainConn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT wrhs_address, file_name FROM " + MAP_TABLE + " ORDER BY shard_no;")) {
+            while (rs.next()) {
+                files.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Warehouse addresses that have a shard, in shard number order.
+     */
+    public static List<String> warehouses(Connection mainConn) throws SQLException {
+        List<String> addresses = new ArrayList<>();
+        try (Statement stmt = mainConn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT wrhs_address FROM " + MAP_TABLE + " ORDER BY shard_no;")) {
+            while (rs.next()) {
+                addresses.add(rs.getString(1));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the writer connection for a warehouse's shard, creating the
+     * shard file (with the main database's table definitions) on first use.
+     * Fails if the warehouse is not in the Warehouse table, or if it would
+     * need a shard beyond {@link #MAX_SHARDS}.
+     */
+    public static synchronized Connection connectionFor(Connection mainConn, String wrhsAddress)
+            throws SQLException {
+        Connection shard = shardConnections.get(wrhsAddress);
+        if (shard != null) {
+            return shard;
+        }
+
+        Path file = shardFile(mainConn, wrhsAddress);
+        boolean isNew = !Files.exists(file);
+        shard = DriverManager.getConnection("jdbc:sqlite:" + file);
+        ConnectionProfile.getActive().apply(shard, ConnectionProfile.Role.WRITER);
+
+        if (isNew) {
+            Connection created = shard;
+            WritePolicy.execute(created, c -> {
+                copySchema(mainConn, c);
+                return null;
+            });
+            // Read views must be rebuilt to include the new shard.
+            SQL.resetReadConnection();
+        }
+        shardConnections.put(wrhsAddress, shard);
+        return shard;
+    }
+
+    /**
+     * Runs an insert into a sharded table on the given (main or shard)
+     * connection, after checking inside its write transaction that no row
+     * in main or any shard has the same primary key. Checked inserts are
+     * serialized, so two of them cannot both pass the check with one key.
+     */
+    public static synchronized <T> T insertChecked(Connection target, String tableName, String[] columns,
+                                                   String[] values, WritePolicy.Write<T> insert)
+            throws SQLException {
+        return WritePolicy.execute(target, c -> {
+            checkKeyUnused(tableName, columns, values);
+            return insert.run(c);
+        });
+    }
+
+    /**
+     * Attaches every shard to a read connection and shadows each sharded
+     * table with a TEMP view over main plus all shards.
+     */
+    public static void attachAll(Connection reader, Connection mainConn) throws SQLException {
+        List<String> files = new ArrayList<>();
+        try (Statement stmt = mainConn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT file_name FROM " + MAP_TABLE + " ORDER BY shard_no;")) {
+            while (rs.next()) {
+                files.add(rs.getString(1));
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        try (Statement stmt = reader.createStatement()) {
+            for (int i = 0; i < files.size(); i++) {
+                String path = directory.resolve(files.get(i)).toString().replace("'", "''");
+                stmt.execute("ATTACH DATABASE '" + path + "' AS shard_" + (i + 1) + ";");
+            }
+            for (String table : shardedTables()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("CREATE TEMP VIEW ").append(table).append(" AS SELECT * FROM main.").append(table);
+                for (int i = 0; i < files.size(); i++) {
+                    sb.append(" UNION ALL SELECT * FROM shard_").append(i + 1).append('.').append(table);
+                }
+                stmt.execute(sb.append(';').toString());
+            }
+        }
+    }
+
+    /**
+     * Closes all shard writer connections.
+     */
+    public static synchronized void closeAll() {
+        for (Connection c : shardConnections.values()) {
+            try {
+                c.close();
+            } catch (SQLException e) {
+                System.out.println("Error closing shard connection: " + e.getMessage());
+            }
+        }
+        shardConnections.clear();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Looks up (or assigns) the shard file for a warehouse. The lookup and
+     * the assignment share one write transaction, so two programs cannot
+     * assign the same shard number.
+     */
+    private static Path shardFile(Connection mainConn, String wrhsAddress) throws SQLException {
+        String fileName = WritePolicy.execute(mainConn, c -> shardFileName(c, wrhsAddress));
+        return directory.resolve(fileName);
+    }
+
+    private static String shardFileName(Connection mainConn, String wrhsAddress) throws SQLException {
+        try (PreparedStatement ps = mainConn.prepareStatement(
+                "SELECT file_name FROM " + MAP_TABLE + " WHERE wrhs_address = ?;")) {
+            ps.setString(1, wrhsAddress);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+
+        try (PreparedStatement ps = mainConn.prepareStatement(
+                "SELECT 1 FROM main." + WAREHOUSE_TABLE + " WHERE wrhs_address = ?;")) {
+            ps.setString(1, wrhsAddress);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Unknown warehouse '" + wrhsAddress + "'; add it to "
+                            + WAREHOUSE_TABLE + " first.");
+                }
+            }
+        }
+
+        long shards;
+        long shardNo;
+        try (Statement stmt = mainConn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT COUNT(*), COALESCE(MAX(shard_no), 0) + 1 FROM " + MAP_TABLE + ";")) {
+            rs.next();
+            shards = rs.getLong(1);
+            shardNo = rs.getLong(2);
+        }
+        if (shards >= MAX_SHARDS) {
+            throw new SQLException("Cannot create a shard for '" + wrhsAddress + "': already "
+                    + shards + " shards, the most that can be attached.");
+        }
+        String fileName = "wrhs_" + shardNo + ".db";
+        try (PreparedStatement ps = mainConn.prepareStatement(
+                "INSERT INTO " + MAP_TABLE + " (shard_no, wrhs_address, file_name) VALUES (?, ?, ?);")) {
+            ps.setLong(1, shardNo);
+            ps.setString(2, wrhsAddress);
+            ps.setString(3, fileName);
+            ps.executeUpdate();
+        }
+        return fileName;
+    }
+
+    /**
+     * Throws if a row with the same primary key as the given values is in
+     * the main database or any attached shard. Each table is queried
+     * directly (not through the TEMP view) so the key column's type
+     * affinity applies to the bound text, as it does on insert.
+     */
+    private static void checkKeyUnused(String tableName, String[] columns, String[] values) throws SQLException {
+        List<String> pk = SchemaRegistry.primaryKeyOf(tableName);
+        List<String> keyValues = new ArrayList<>();
+        for (String column : pk) {
+            int i = indexOf(columns, column);
+            if (i < 0 || values[i] == null) {
+                return; // key not given; SQLite assigns or rejects it
+            }
+            keyValues.add(values[i]);
+        }
+        if (pk.isEmpty()) {
+            return;
+        }
+
+        Connection reader = SQL.getReadConnection();
+        if (reader == null) {
+            throw new SQLException("Cannot check " + tableName + " keys across shards: no read connection.");
+        }
+        List<String> schemas = new ArrayList<>();
+        try (Statement stmt = reader.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA database_list;")) {
+            while (rs.next()) {
+                String name = rs.getString("name");
+                if (name.equals("main") || name.startsWith("shard_")) {
+                    schemas.add(name);
+                }
+            }
+        }
+
+        StringBuilder where = new StringBuilder();
+        for (String column : pk) {
+            where.append(where.length() == 0 ? " WHERE " : " AND ").append(column).append(" = ?");
+        }
+        StringBuilder sql = new StringBuilder();
+        for (String schema : schemas) {
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT '").append(schema).append("' FROM ").append(schema).append('.')
+                    .append(tableName).append(where);
+        }
+        try (PreparedStatement ps = reader.prepareStatement(sql.append(" LIMIT 1;").toString())) {
+            int p = 1;
+            for (int s = 0; s < schemas.size(); s++) {
+                for (String value : keyValues) {
+                    ps.setString(p++, value);
+                }
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    throw new SQLException(tableName + " already has a row with " + String.join(", ", pk)
+                            + " = " + String.join(", ", keyValues) + " (in " + rs.getString(1) + ").");
+                }
+            }
+        }
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the sharded tables, and their indexes, in a new shard using
+     * the main database's CREATE statements.
+     */
+    private static void copySchema(Connection mainConn, Connection shard) throws SQLException {
+        List<String> tables = shardedTables();
+        // Tables sort before indexes; automatic indexes have no SQL
+        try (Statement read = mainConn.createStatement();
+             ResultSet rs = read.executeQuery(
+                     "SELECT tbl_name, sql FROM main.sqlite_master "
+                     + "WHERE type IN ('table', 'index') AND sql IS NOT NULL ORDER BY type DESC;");
+             Statement write = shard.createStatement()) {
+            while (rs.next()) {
+                for (String table : tables) {
+                    if (table.equalsIgnoreCase(rs.getString(1))) {
+                        write.executeUpdate(rs.getString(2));
+                    }
+                }
+            }
+        }
+    }
+}
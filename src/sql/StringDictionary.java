@@ -0,0 +1,53 @@
+package sql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * String dictionary: each distinct value is stored once and referenced by
+ * an int code. Code 0 is reserved for NULL.
+ *
+ * Values may be given as any object (e.g. an Integer from the driver); it
+ * is the lookup key, and is turned into a String only the first time it is
+ * seen. Equal text from different types (1 and "1") may get two codes that
+ * decode to the same string.
+ */
+final class StringDictionary {
+    private final Map<Object, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    StringDictionary() {
+        values.add(null);
+    }
+
+    int encode(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value.toString());
+        }
+        return code;
+    }
+
+    String decode(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * The values indexed by code (index 0 is null), without the lookup map,
+     * for decoding once no more values will be added.
+     */
+    String[] toArray() {
+        return values.toArray(new String[0]);
+    }
+}
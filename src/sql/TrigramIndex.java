@@ -0,0 +1,412 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory trigram index for fuzzy and prefix search over people and
+ * equipment: member names, emails, phones and addresses, employee names
+ * and contacts, and equipment type, manufacturer and location.
+ *
+ * Each indexed field is split into words (letters and digits), and every
+ * word is padded with a space on both sides and cut into 3-character
+ * trigrams: "Wilson" gives " wi", "wil", "ils", "lso", "son", "on ". For
+ * each trigram the index keeps the ascending list of rows that contain it.
+ * A query is cut the same way; a row's score is the share of the query's
+ * trigrams it contains, so misspellings still score on the trigrams they
+ * got right ("wilsn" shares " wi", "wil", "ils" with "wilson"), and a row
+ * with a word that starts with every query word (a prefix match) is ranked
+ * above the rest. Only rows sharing a trigram with the query are scored.
+ *
+ * A table is loaded on first search. Inserts, edits and deletes reported by
+ * the change log are applied in place: the old row is marked deleted and
+ * the new one appended. When more than half the rows are deleted ones, or a
+ * change cannot be applied (no key), the table is reloaded on next use.
+ */
+public final class TrigramIndex {
+
+    /**
+     * Rows with fewer matching trigrams than this share of the query's are
+     * not returned.
+     */
+    private static final double MIN_SCORE = 0.4;
+
+    /**
+     * Indexed tables: table name -> key column, then the searchable fields.
+     */
+    private static final Map<String, String[]> TABLES = new LinkedHashMap<>();
+
+    static {
+        TABLES.put("community_member",
+                new String[] { "member_id", "f_name", "l_name", "email", "phone", "mbr_address" });
+        TABLES.put("employee",
+                new String[] { "ssn", "f_name", "l_name", "email", "phone_no" });
+        TABLES.put("equipment",
+                new String[] { "equipment_id", "type", "manufacturer", "location" });
+    }
+
+    private static final Map<String, TableIndex> indexes = new HashMap<>();
+
+    static {
+        ChangeLog.addListener(TrigramIndex::apply);
+    }
+
+    // Private constructor to prevent instantiation
+    private TrigramIndex() {
+    }
+
+    /**
+     * Returns true if the table can be searched with {@link #search}.
+     */
+    public static boolean isIndexed(String tableName) {
+        return TABLES.containsKey(tableName.toLowerCase());
+    }
+
+    /**
+     * The query that loads a table's index: its key and searchable fields
+     * for every row.
+     *
+     * @param tableName an indexed table
+     */
+    public static String loadSql(String tableName) {
+        return "SELECT " + String.join(", ", TABLES.get(tableName.toLowerCase())) + " FROM " + tableName + ";";
+    }
+
+    /**
+     * The best matches for a query in one table, best first.
+     *
+     * Columns: the key column, the indexed fields, then score (0 to 1, plus
+     * 1 for a prefix match).
+     *
+     * @param tableName an indexed table
+     * @param query     words to look for, possibly misspelled or partial
+     * @param limit     most rows to return
+     */
+    public static synchronized ResultTable search(String tableName, String query, int limit)
+            throws SQLException {
+        String[] spec = TABLES.get(tableName.toLowerCase());
+        if (spec == null) {
+            throw new SQLException(tableName + " has no trigram index.");
+        }
+        TableIndex index = indexes.get(tableName.toLowerCase());
+        if (index == null || index.stale) {
+            index = load(tableName, spec.length);
+            indexes.put(tableName.toLowerCase(), index);
+        }
+
+        String[] columns = new String[spec.length + 1];
+        System.arraycopy(spec, 0, columns, 0, spec.length);
+        columns[spec.length] = "score";
+
+        List<String[]> rows = new ArrayList<>();
+        for (Hit hit : index.search(query, limit)) {
+            String[] row = new String[columns.length];
+            System.arraycopy(index.docs.get(hit.doc), 0, row, 0, spec.length);
+            row[spec.length] = String.format("%.2f", hit.score);
+            rows.add(row);
+        }
+        return new ResultTable(columns, rows);
+    }
+
+    /**
+     * Drops every loaded table, e.g. after a restore replaced the database.
+     */
+    public static synchronized void clear() {
+        indexes.clear();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static TableIndex load(String tableName, int fields) throws SQLException {
+        Connection conn = SQL.getReadConnection();
+        if (conn == null) {
+            throw new SQLException("Database not initialized.");
+        }
+        TableIndex index = new TableIndex(fields);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(loadSql(tableName))) {
+            while (rs.next()) {
+                String[] values = new String[fields];
+                for (int i = 0; i < fields; i++) {
+                    values[i] = rs.getString(i + 1);
+                }
+                index.add(values);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Change log listener: keeps loaded tables in step with inserts, edits
+     * and deletes.
+     */
+    private static synchronized void apply(ChangeLog.Change change) {
+        String table = change.table.toLowerCase();
+        TableIndex index = indexes.get(table);
+        if (index == null || index.stale) {
+            return;
+        }
+        String[] spec = TABLES.get(table);
+        String key = spec[0];
+
+        if (!change.operation.equals(ChangeLog.INSERT)) {
+            String oldKey = change.before.get(key);
+            if (oldKey == null) {
+                index.stale = true;
+                return;
+            }
+            index.remove(oldKey);
+        }
+        if (!change.operation.equals(ChangeLog.DELETE)) {
+            String[] values = new String[spec.length];
+            for (int i = 0; i < spec.length; i++) {
+                if (!change.after.containsKey(spec[i])) {
+                    // Not a whole row (e.g. a single-column update)
+                    index.stale = true;
+                    return;
+                }
+                values[i] = change.after.get(spec[i]);
+            }
+            index.add(values);
+        }
+        if (index.deleted.cardinality() * 2 > index.docs.size()) {
+            index.stale = true;
+        }
+    }
+
+    /**
+     * Calls out for each trigram of text: words are runs of letters and
+     * digits, lower-cased and padded with a space on each side.
+     */
+    private static void forEachTrigram(String text, TrigramConsumer out) {
+        if (text == null) {
+            return;
+        }
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                // Padded word: ' ' + word + ' '
+                char a = ' ';
+                char b = Character.toLowerCase(text.charAt(start));
+                for (int j = start + 1; j <= i; j++) {
+                    char c = j < i ? Character.toLowerCase(text.charAt(j)) : ' ';
+                    out.accept(pack(a, b, c));
+                    a = b;
+                    b = c;
+                }
+            }
+        }
+    }
+
+    private static long pack(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    /**
+     * Words of text as lower-cased runs of letters and digits.
+     */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            } else if (sb.length() > 0) {
+                words.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    private interface TrigramConsumer {
+        void accept(long trigram);
+    }
+
+    private static final class Hit {
+        final int doc;
+        final double score;
+
+        Hit(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * One table's rows and postings.
+     */
+    private static final class TableIndex {
+        final int fields;
+        final List<String[]> docs = new ArrayList<>();
+        final Map<String, Integer> docByKey = new HashMap<>();
+        final Map<Long, IntColumn> postings = new HashMap<>();
+        final BitSet deleted = new BitSet();
+        boolean stale = false;
+
+        // Per-row counters for search, reset after each query
+        private int[] shared = new int[0];
+        private int[] sharedInner = new int[0];
+
+        TableIndex(int fields) {
+            this.fields = fields;
+        }
+
+        void add(String[] values) {
+            int doc = docs.size();
+            docs.add(values);
+            Integer previous = docByKey.put(values[0], doc);
+            if (previous != null) {
+                deleted.set(previous);
+            }
+            for (int f = 1; f < fields; f++) {
+                forEachTrigram(values[f], t -> {
+                    IntColumn list = postings.computeIfAbsent(t, k -> new IntColumn(4));
+                    // A row is listed once per trigram
+                    if (list.size() == 0 || list.get(list.size() - 1) != doc) {
+                        list.add(doc);
+                    }
+                });
+            }
+        }
+
+        void remove(String key) {
+            Integer doc = docByKey.remove(key);
+            if (doc != null) {
+                deleted.set(doc);
+            }
+        }
+
+        List<Hit> search(String query, int limit) {
+            // Distinct trigrams of the query; a word's last trigram ends in
+            // the padding space, the others are what any prefix would share
+            List<Long> trigrams = new ArrayList<>();
+            forEachTrigram(query, t -> {
+                if (!trigrams.contains(t)) {
+                    trigrams.add(t);
+                }
+            });
+            List<Hit> hits = new ArrayList<>();
+            if (trigrams.isEmpty()) {
+                return hits;
+            }
+
+            // Count shared trigrams for every row that has at least one
+            if (shared.length < docs.size()) {
+                shared = new int[docs.size() * 2];
+                sharedInner = new int[docs.size() * 2];
+            }
+            IntColumn touched = new IntColumn();
+            int inner = 0;
+            for (long t : trigrams) {
+                boolean isInner = (t & 0xFFFF) != ' ';
+                if (isInner) {
+                    inner++;
+                }
+                IntColumn list = postings.get(t);
+                if (list == null) {
+                    continue;
+                }
+                int[] data = list.data;
+                for (int i = 0; i < list.size(); i++) {
+                    int doc = data[i];
+                    if (shared[doc]++ == 0) {
+                        touched.add(doc);
+                    }
+                    if (isInner) {
+                        sharedInner[doc]++;
+                    }
+                }
+            }
+
+            // Keep the best `limit` rows
+            List<String> queryWords = words(query);
+            PriorityQueue<Hit> best = new PriorityQueue<>(
+                    (x, y) -> x.score != y.score ? Double.compare(x.score, y.score) : Integer.compare(y.doc, x.doc));
+            for (int i = 0; i < touched.size(); i++) {
+                int doc = touched.get(i);
+                double score = (double) shared[doc] / trigrams.size();
+                boolean candidate = sharedInner[doc] == inner;
+                shared[doc] = 0;
+                sharedInner[doc] = 0;
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                // Skip rows that could not make the list even as a prefix match
+                if (best.size() == limit && score + (candidate ? 1 : 0) <= best.peek().score) {
+                    continue;
+                }
+                // Only rows with every inner trigram can be prefix matches
+                if (candidate && isPrefixMatch(docs.get(doc), queryWords)) {
+                    score += 1;
+                } else if (score < MIN_SCORE) {
+                    continue;
+                }
+                best.add(new Hit(doc, score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            while (!best.isEmpty()) {
+                hits.add(0, best.poll());
+            }
+            return hits;
+        }
+
+        /**
+         * True if every query word starts some word of the row's fields.
+         */
+        private boolean isPrefixMatch(String[] values, List<String> queryWords) {
+            for (String q : queryWords) {
+                boolean found = false;
+                for (int f = 1; f < fields && !found; f++) {
+                    found = startsWord(values[f], q);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return !queryWords.isEmpty();
+        }
+
+        /**
+         * True if some word of text (a run of letters and digits) starts
+         * with the lower-case word q.
+         */
+        private static boolean startsWord(String text, String q) {
+            if (text == null) {
+                return false;
+            }
+            for (int i = 0; i + q.length() <= text.length(); i++) {
+                boolean wordStart = i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1));
+                if (wordStart && text.regionMatches(true, i, q, 0, q.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * How the application writes when other connections or programs may hold
+ * the database lock.
+ *
+ * Every write runs through {@link #execute}: in its own BEGIN IMMEDIATE
+ * transaction, which takes the write lock up front, so a transaction that
+ * reads and then writes never has to upgrade a read lock (the upgrade is
+ * where two deferred transactions deadlock, and SQLite then fails one of
+ * them at once without waiting). If the lock is still busy after the
+ * connection's busy_timeout, the transaction is rolled back and retried
+ * after an exponentially growing, randomly jittered pause, up to
+ * {@link #MAX_ATTEMPTS} times. Only then does the caller get an error.
+ *
+ * Retries, give-ups and the time lost to them are counted in
+ * {@link #totals()}, and optionally in a caller's own {@link Metrics}.
+ */
+public final class WritePolicy {
+
+    /**
+     * Attempts per write before giving up.
+     */
+    public static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * busy_timeout set on the writer connection when the connection profile
+     * does not set one.
+     */
+    public static final int DEFAULT_BUSY_TIMEOUT_MS = 1000;
+
+    private static final long BASE_DELAY_MS = 10;
+    private static final long MAX_DELAY_MS = 1000;
+
+    /**
+     * A unit of work run inside one write transaction.
+     */
+    @FunctionalInterface
+    public interface Write<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Counters for writes run through the policy.
+     */
+    public static final class Metrics {
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong gaveUp = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+
+        /** Writes that committed. */
+        public long getWrites() {
+            return writes.get();
+        }
+
+        /** Attempts that hit a busy lock and were retried. */
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /** Writes that were still busy after {@link #MAX_ATTEMPTS}. */
+        public long getGaveUp() {
+            return gaveUp.get();
+        }
+
+        /** Time spent in busy attempts and the pauses after them. */
+        public long getWaitMillis() {
+            return waitNanos.get() / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            return "writes=" + getWrites() + ", busy retries=" + getRetries()
+                    + ", gave up=" + getGaveUp() + ", lock wait=" + getWaitMillis() + " ms";
+        }
+    }
+
+    private static final Metrics totals = new Metrics();
+
+    /**
+     * Connections inside a transaction opened by {@link #runImmediate}. The
+     * raw BEGIN leaves the driver's auto-commit flag on, so it cannot tell.
+     */
+    private static final Set<Connection> inTransaction =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // Private constructor to prevent instantiation
+    private WritePolicy() {
+    }
+
+    /**
+     * Counters for every write since startup.
+     */
+    public static Metrics totals() {
+        return totals;
+    }
+
+    /**
+     * Runs a write in its own immediate transaction, retrying while the
+     * database is busy.
+     *
+     * If the connection is already inside a transaction (an enclosing
+     * execute, or auto-commit off), the write joins it and is not retried,
+     * since the earlier part of the transaction cannot be replayed from
+     * here.
+     *
+     * @param conn  the connection to write on (main or a shard)
+     * @param write the statements to run; may be run more than once
+     * @return what the write returned on the attempt that committed
+     */
+    public static <T> T execute(Connection conn, Write<T> write) throws SQLException {
+        return execute(conn, write, null);
+    }
+
+    /**
+     * Same as {@link #execute(Connection, Write)}, also counting into the
+     * caller's metrics.
+     */
+    public static <T> T execute(Connection conn, Write<T> write, Metrics metrics) throws SQLException {
+        synchronized (conn) {
+            if (inTransaction.contains(conn) || !conn.getAutoCommit()) {
+                return write.run(conn);
+            }
+        }
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                T result;
+                synchronized (conn) {
+                    result = runImmediate(conn, write);
+                }
+                count(metrics, m -> m.writes.incrementAndGet());
+                return result;
+            } catch (SQLException e) {
+                if (!isBusy(e)) {
+                    throw e;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    count(metrics, m -> m.gaveUp.incrementAndGet());
+                    throw new SQLException("The database is busy (another program is writing to it); gave up after "
+                            + MAX_ATTEMPTS + " attempts. " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+                }
+                pause(attempt);
+                long waited = System.nanoTime() - start;
+                count(metrics, m -> {
+                    m.retries.incrementAndGet();
+                    m.waitNanos.addAndGet(waited);
+                });
+            }
+        }
+    }
+
+    /**
+     * True for SQLITE_BUSY and SQLITE_LOCKED (including their extended
+     * codes), which the driver reports as the vendor error code.
+     */
+    public static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xFF;
+        String message = String.valueOf(e.getMessage());
+        return code == 5 || code == 6 || message.contains("SQLITE_BUSY") || message.contains("database is locked");
+    }
+
+    /**
+     * Sets {@link #DEFAULT_BUSY_TIMEOUT_MS} on a writer connection whose
+     * profile does not set busy_timeout, so SQLite waits briefly for the
+     * lock before a write is retried here.
+     */
+    public static void applyDefaultBusyTimeout(Connection conn, ConnectionProfile profile) {
+        if (profile.getPragmas(ConnectionProfile.Role.WRITER).containsKey("busy_timeout")) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + DEFAULT_BUSY_TIMEOUT_MS + ";");
+        } catch (SQLException e) {
+            System.out.println("Could not set busy_timeout: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static <T> T runImmediate(Connection conn, Write<T> write) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("BEGIN IMMEDIATE;");
+            inTransaction.add(conn);
+            try {
+                T result = write.run(conn);
+                stmt.execute("COMMIT;");
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    stmt.execute("ROLLBACK;");
+                } catch (SQLException ignored) {
+                    // Already rolled back by SQLite
+                }
+                throw e;
+            } finally {
+                inTransaction.remove(conn);
+            }
+        }
+    }
+
+    /**
+     * Sleeps for a random time up to BASE_DELAY_MS * 2^(attempt - 1),
+     * capped at MAX_DELAY_MS ("full jitter"), so writers that collided do
+     * not retry in step.
+     */
+    private static void pause(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database lock.", e);
+        }
+    }
+
+    private static void count(Metrics metrics, Consumer<Metrics> update) {
+        update.accept(totals);
+        if (metrics != null) {
+            update.accept(metrics);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import sql.ConnectionProfile;
+
+/**
+ * Compares connection profiles on the same workload.
+ *
+ * Every profile in the configuration file (plus the driver defaults) is run
+ * against its own fresh copy of the database, so the real database is never
+ * modified. The workload is a burst of single-row autocommit writes followed
+ * by repeated report-style aggregate reads on a read-only connection.
+ *
+ * Usage: java tools.ProfileBenchmark [database] [config] [writes] [reads]
+ */
+public class ProfileBenchmark {
+
+    private static final String[] READ_QUERIES = {
+        "SELECT E.equipment_id, COUNT(RT.equipment_id) AS n FROM Equipment AS E "
+            + "LEFT JOIN Rental_Transaction AS RT ON E.equipment_id = RT.equipment_id "
+            + "GROUP BY E.equipment_id ORDER BY n DESC;",
+        "SELECT D.drone_id, SUM(DD.miles_flown) AS miles FROM Drone AS D "
+            + "JOIN Drone_Performs_Delivery AS DD ON D.drone_id = DD.drone_id "
+            + "GROUP BY D.drone_id ORDER BY miles DESC;",
+        "SELECT M.member_id, COUNT(R.rental_id) AS n FROM Community_Member AS M "
+            + "JOIN Rental_Transaction AS R ON R.member_id = M.member_id "
+            + "GROUP BY R.member_id ORDER BY n DESC LIMIT 1;"
+    };
+
+    public static void main(String[] args) throws Exception {
+        Path database = Paths.get(args.length > 0 ? args[0] : "DroneDeliveryDBS.db");
+        Path config = Paths.get(args.length > 1 ? args[1] : "sqlite.properties");
+        int writes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        List<ConnectionProfile> profiles = new ArrayList<>();
+        profiles.add(ConnectionProfile.driverDefaults());
+        if (Files.exists(config)) {
+            profiles.addAll(ConnectionProfile.loadAll(config));
+        }
+
+        System.out.println("profile,  writes,  write_ms,  writes_per_sec,  reads,  read_ms,  ms_per_read");
+        for (ConnectionProfile profile : profiles) {
+            Path copy = Files.createTempFile("profile-bench-", ".db");
+            try {
+                Files.copy(database, copy, StandardCopyOption.REPLACE_EXISTING);
+                runProfile(profile, copy, writes, reads);
+            } finally {
+                Files.deleteIfExists(copy);
+                Files.deleteIfExists(Paths.get(copy + "-wal"));
+                Files.deleteIfExists(Paths.get(copy + "-shm"));
+                Files.deleteIfExists(Paths.get(copy + "-journal"));
+            }
+        }
+    }
+
+    private static void runProfile(ConnectionProfile profile, Path copy, int writes, int reads)
+            throws SQLException, IOException {
+        String url = "jdbc:sqlite:" + copy;
+
+        try (Connection writer = DriverManager.getConnection(url)) {
+            profile.apply(writer, ConnectionProfile.Role.WRITER);
+
+            try (Statement stmt = writer.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE Bench_Write (id INTEGER PRIMARY KEY, payload TEXT);");
+            }
+
+            // Each statement is its own transaction, as in the application.
+            long start = System.nanoTime();
+            try (PreparedStatement insert = writer.prepareStatement(
+                         "INSERT INTO Bench_Write (id, payload) VALUES (?, ?);");
+                 PreparedStatement update = writer.prepareStatement(
+                         "UPDATE Bench_Write SET payload = ? WHERE id = ?;")) {
+                for (int i = 0; i < writes; i++) {
+                    if (i % 2 == 0) {
+                        insert.setInt(1, i);
+                        insert.setString(2, "row " + i);
+                        insert.executeUpdate();
+                    } else {
+                        update.setString(1, "updated " + i);
+                        update.setInt(2, i - 1);
+                        update.executeUpdate();
+                    }
+                }
+            }
+            long writeMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+            Properties props = new Properties();
+            props.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+            long readMillis;
+            try (Connection reader = DriverManager.getConnection(url, props)) {
+                profile.apply(reader, ConnectionProfile.Role.READER);
+                start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    try (Statement stmt = reader.createStatement();
+                         ResultSet rs = stmt.executeQuery(READ_QUERIES[i % READ_QUERIES.length])) {
+                        while (rs.next()) {
+                            rs.getString(1);
+                        }
+                    }
+                }
+                readMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            }
+
+            System.out.println(String.format("%s,  %d,  %d,  %.0f,  %d,  %d,  %.2f",
+                    profile.getName(), writes, writeMillis, writes * 1000.0 / writeMillis,
+                    reads, readMillis, (double) readMillis / reads));
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import options.ManageRentals;
+import options.MemberHistory;
+import options.Reports;
+import options.Search;
+import options.TimeSeriesReports;
+import options.Update;
+import sql.Archive;
+import sql.Availability;
+import sql.MemberSummary;
+import sql.RentalDetails;
+import sql.SQL;
+import sql.SchemaRegistry;
+import sql.ServiceArea;
+import sql.TrigramIndex;
+import utilities.EntityDefinition;
+
+/**
+ * Guards the application's queries against plan regressions.
+ *
+ * Every query the menu options run, and the loads behind the in-memory
+ * indexes, is listed in {@link #registry}, taken from the same constants
+ * and SQL builders the application uses. Queries that read archived history
+ * are listed both as written and as rewritten by Archive.spanning, against
+ * an empty archive created on the copy. Maintenance writes (archive moves,
+ * summary triggers, shard routing) are not listed. Each is run
+ * through EXPLAIN QUERY PLAN on a copy of the database and compared with
+ * the plan recorded in the baseline file. The check fails (exit status 1)
+ * if a query now scans a table it used to reach through an index; other
+ * plan changes are reported but do not fail. SELECTs are also timed.
+ *
+ * Plans depend on the SQLite version, so the baseline records the version
+ * it was taken with. Against a different version every difference is
+ * reported, with the mismatch, but none fails the check.
+ *
+ * The copy can be scaled up first (--scale N) by adding N-1 shifted
+ * replicas of the members, equipment, rentals, deliveries, returns and
+ * reviews, so plans and timings reflect a larger database. The real
+ * database is never modified.
+ *
+ * Usage: java tools.QueryPlanCheck [database] [--record] [--scale N] [--runs N] [--baseline file]
+ */
+public class QueryPlanCheck {
+
+    private static final String DEFAULT_BASELINE = "query-plans.txt";
+
+    /**
+     * Baseline header line giving the SQLite version the plans came from.
+     */
+    private static final String VERSION_HEADER = "# SQLite ";
+
+    /**
+     * Added to member, equipment and rental ids for each replica.
+     */
+    private static final long REPLICA_OFFSET = 10_000_000L;
+
+    private static final String[] SCALED_TABLES = {
+        "Community_Member", "Equipment", "Rental_Transaction",
+        "Drone_Performs_Delivery", "Drone_Performs_Return", "Rating_And_Review"
+    };
+
+    private static final Set<String> SHIFTED_COLUMNS =
+            new LinkedHashSet<>(Arrays.asList("member_id", "equipment_id", "rental_id"));
+
+    /**
+     * Archive cutoff used on a copy without an archive: nothing is older, so
+     * the archive is created empty and every query reads it.
+     */
+    private static final String EMPTY_ARCHIVE_CUTOFF = "0000-00-00";
+
+    /**
+     * One registered query: SQL text and sample parameters.
+     */
+    public static final class Query {
+        final String name;
+        final String sql;
+        final Object[] params;
+
+        Query(String name, String sql, Object... params) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+        }
+
+        boolean isSelect() {
+            return sql.trim().toUpperCase().startsWith("SELECT");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path database = Paths.get("DroneDeliveryDBS.db");
+        Path baseline = Paths.get(DEFAULT_BASELINE);
+        boolean record = false;
+        int scale = 1;
+        int runs = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--record":
+                    record = true;
+                    break;
+                case "--scale":
+                    scale = Integer.parseInt(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[++i]);
+                    break;
+                default:
+                    database = Paths.get(args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("plan-check-");
+        Path copy = dir.resolve(database.getFileName());
+        int regressions;
+        try {
+            Files.copy(database, copy, StandardCopyOption.REPLACE_EXISTING);
+            if (scale > 1) {
+                scaleUp(copy, scale);
+            }
+            regressions = run(copy, baseline, record, runs);
+        } finally {
+            SQL.closeConnection();
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " query plan regression(s).");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The application's queries, with sample parameters read from the
+     * database so they match real rows.
+     */
+    public static List<Query> registry(Connection conn) throws SQLException {
+        String memberId = first(conn, "SELECT member_id FROM Community_Member ORDER BY member_id LIMIT 1;");
+        String rentalId = first(conn, "SELECT rental_id FROM Rental_Transaction ORDER BY rental_id LIMIT 1;");
+        String warehouse = first(conn, "SELECT wrhs_address FROM Warehouse ORDER BY wrhs_address LIMIT 1;");
+        String type = first(conn, "SELECT type FROM Equipment ORDER BY type LIMIT 1;");
+
+        String rentalTable = EntityDefinition.RENTAL_TRANSACTION.getTableName();
+        String equipmentId = first(conn, "SELECT equipment_id FROM Equipment ORDER BY equipment_id LIMIT 1;");
+        String memberTable = EntityDefinition.COMMUNITY_MEMBER.getTableName();
+        String[] memberColumns = SchemaRegistry.columnsFor(EntityDefinition.COMMUNITY_MEMBER);
+        String[] rentalColumns = SchemaRegistry.columnsFor(EntityDefinition.RENTAL_TRANSACTION);
+
+        List<Query> queries = new ArrayList<>();
+
+        // options.Reports (also run together by options.ReportRunner)
+        addSpanning(queries, "report1_member_rentals", Reports.REPORT1_SQL, memberId);
+        addSpanning(queries, "report2_equipment_ranked", Reports.REPORT2_SQL, 10);
+        addSpanning(queries, "report3_top_manufacturer", Reports.REPORT3_SQL);
+        addSpanning(queries, "report4_drone_miles", Reports.REPORT4_SQL, 10);
+        addSpanning(queries, "report5_top_members", Reports.REPORT5_SQL, 10);
+        addSpanning(queries, "report6_equipment_by_type", Reports.REPORT6_SQL, type, 2100);
+
+        // options.TimeSeriesReports (report 7)
+        queries.add(new Query("report7_weekly", TimeSeriesReports.reportSql(
+                TimeSeriesReports.bucketExpression("w"), 3),
+                TimeSeriesReports.METRIC_RENTALS, "0000-00-00", "9999-12-31"));
+        queries.add(new Query("rollup_latest_day", TimeSeriesReports.LATEST_DAY_SQL,
+                TimeSeriesReports.METRIC_RENTALS));
+        for (String metric : new String[] {
+                TimeSeriesReports.METRIC_RENTALS, TimeSeriesReports.METRIC_MILES, TimeSeriesReports.METRIC_MAINT }) {
+            queries.add(new Query("rollup_" + metric,
+                    TimeSeriesReports.rollupSql(metric, "9999-12-31"), metric, "9999-12-31"));
+            String rebuild = TimeSeriesReports.rollupSql(metric, null);
+            if (!rebuild.equals(TimeSeriesReports.rollupSql(metric, "9999-12-31"))) {
+                queries.add(new Query("rollup_" + metric + "_archived", rebuild, metric, "0000-00-00"));
+            }
+        }
+
+        // options.MemberHistory (report 10)
+        queries.add(new Query("member_summary", MemberHistory.SUMMARY_SQL, memberId));
+        addSpanning(queries, "member_timeline_first",
+                MemberHistory.TIMELINE_SQL.replace("/*cursor*/", ""), memberId, 20);
+        addSpanning(queries, "member_timeline_next",
+                MemberHistory.TIMELINE_SQL.replace("/*cursor*/", MemberHistory.CURSOR_CLAUSE),
+                memberId, "9999-12-31", rentalId, 20);
+
+        // options.ManageRentals
+        queries.add(new Query("rental_exists", ManageRentals.existsSql(rentalTable, "rental_id"), rentalId));
+        queries.add(new Query("rental_return_date", ManageRentals.selectReturnDateSql(rentalTable), rentalId));
+        queries.add(new Query("rental_record_return", ManageRentals.recordReturnSql(rentalTable)));
+        addSpanning(queries, "delivery_route", ServiceArea.ROUTE_SQL, rentalId);
+        queries.add(new Query("delivery_drones", ServiceArea.DRONES_SQL, warehouse, "0"));
+        queries.add(new Query("members_within", ServiceArea.MEMBERS_WITHIN_SQL, warehouse, 5));
+
+        // sql.RentalDetails (view rental details), with three ids per IN list
+        addSpanning(queries, "details_rentals",
+                RentalDetails.inListSql(RentalDetails.RENTALS_SQL, 3), rentalId, rentalId, rentalId);
+        queries.add(new Query("details_members",
+                RentalDetails.inListSql(RentalDetails.MEMBERS_SQL, 3), memberId, memberId, memberId));
+        queries.add(new Query("details_equipment",
+                RentalDetails.inListSql(RentalDetails.EQUIPMENT_SQL, 3), equipmentId, equipmentId, equipmentId));
+        queries.add(new Query("details_deliveries",
+                RentalDetails.inListSql(RentalDetails.DELIVERIES_SQL, 3), rentalId, rentalId, rentalId));
+        queries.add(new Query("details_returns",
+                RentalDetails.inListSql(RentalDetails.RETURNS_SQL, 3), rentalId, rentalId, rentalId));
+        addSpanning(queries, "details_reviews",
+                RentalDetails.inListSql(RentalDetails.REVIEWS_SQL, 3), memberId, memberId, memberId);
+
+        // sql.Availability (equipment available now)
+        queries.add(new Query("availability_equipment", Availability.EQUIPMENT_SQL));
+        queries.add(new Query("availability_open_rentals", Availability.OPEN_RENTALS_SQL));
+
+        // options.Search, exact (every entity) and fuzzy (sql.TrigramIndex loads)
+        for (EntityDefinition def : EntityDefinition.values()) {
+            String table = def.getTableName();
+            String[] columns = SchemaRegistry.columnsFor(def);
+            Object[] likeParams = new Object[columns.length];
+            Arrays.fill(likeParams, "%son%");
+            addSpanning(queries, "search_" + table.toLowerCase() + "_like",
+                    Search.likeSql(table, columns), likeParams);
+            if (TrigramIndex.isIndexed(table)) {
+                queries.add(new Query("trigram_load_" + table.toLowerCase(), TrigramIndex.loadSql(table)));
+            }
+        }
+
+        // options.Update
+        queries.add(new Query("update_list_members", Update.listSql(memberTable)));
+        queries.add(new Query("update_if_unchanged",
+                SQL.updateIfUnchangedSql(memberTable, Arrays.asList(memberColumns), "phone")));
+        queries.add(new Query("delete_if_unchanged",
+                SQL.deleteIfUnchangedSql(memberTable, Arrays.asList(memberColumns))));
+
+        // options.NewEntity (open rentals are guarded against double-booking)
+        Object[] rentalParams = new Object[rentalColumns.length + 1];
+        rentalParams[rentalParams.length - 1] = equipmentId;
+        queries.add(new Query("insert_rental",
+                SQL.insertIfSql(rentalTable, rentalColumns, Availability.NOT_RENTED_CONDITION), rentalParams));
+
+        return queries;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Registers a query, and also its Archive.spanning rewrite (as
+     * name_archived) if that reads archived tables.
+     */
+    private static void addSpanning(List<Query> queries, String name, String sql, Object... params) {
+        queries.add(new Query(name, sql, params));
+        String spanning = Archive.spanning(sql, null);
+        if (!spanning.equals(sql)) {
+            queries.add(new Query(name + "_archived", spanning, params));
+        }
+    }
+
+    private static int run(Path copy, Path baselineFile, boolean record, int runs)
+            throws SQLException, IOException {
+        SQL.initializeDB(copy.toString());
+        Connection conn = SQL.getConnection();
+        if (conn == null) {
+            throw new SQLException("Could not open " + copy);
+        }
+        if (Archive.getArchivedThrough() == null) {
+            Archive.archiveBefore(conn, EMPTY_ARCHIVE_CUTOFF, 500);
+        }
+        // Tables and indexes the application creates on first use
+        MemberSummary.ensure(conn);
+        ServiceArea.ensureIndexes(conn);
+        Availability.ensureIndex(conn);
+        TimeSeriesReports.ensureRollupTable(conn);
+
+        Map<String, List<String>> plans = new LinkedHashMap<>();
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Query q : registry(conn)) {
+            plans.put(q.name, explain(conn, q));
+            if (q.isSelect()) {
+                millis.put(q.name, time(conn, q, runs));
+            }
+        }
+
+        String version = sqliteVersion(conn);
+        if (record) {
+            writeBaselines(baselineFile, plans, version);
+            System.out.println("Recorded " + plans.size() + " query plans in " + baselineFile + ".");
+            printPlans(plans, millis);
+            return 0;
+        }
+
+        Map<String, List<String>> baselines = readBaselines(baselineFile);
+        String recordedWith = baselineVersion(baselineFile);
+        boolean sameVersion = version.equals(recordedWith);
+        if (!sameVersion) {
+            System.out.println("Baseline was recorded with SQLite "
+                    + (recordedWith == null ? "(unknown version)" : recordedWith) + "; this run uses SQLite "
+                    + version + ". Plan differences are reported but do not fail the check. Re-record with "
+                    + "--record on the SQLite version the README names.");
+        }
+        int regressions = 0;
+        System.out.println(String.format("%-28s  %-10s  %10s", "query", "plan", "median_ms"));
+        for (Map.Entry<String, List<String>> e : plans.entrySet()) {
+            String name = e.getKey();
+            List<String> current = e.getValue();
+            List<String> expected = baselines.get(name);
+
+            String status;
+            Set<String> newScans = Collections.emptySet();
+            if (expected == null) {
+                status = "NEW";
+            } else {
+                newScans = scanned(current);
+                newScans.removeAll(scanned(expected));
+                if (!newScans.isEmpty()) {
+                    status = sameVersion ? "REGRESSED" : "SCANS";
+                    if (sameVersion) {
+                        regressions++;
+                    }
+                } else {
+                    status = normalize(current).equals(normalize(expected)) ? "ok" : "changed";
+                }
+            }
+
+            Double ms = millis.get(name);
+            System.out.println(String.format("%-28s  %-10s  %10s", name, status,
+                    ms == null ? "-" : String.format("%.3f", ms)));
+            if (!status.equals("ok")) {
+                if (expected != null) {
+                    for (String line : expected) {
+                        System.out.println("      was: " + line);
+                    }
+                }
+                for (String line : current) {
+                    System.out.println("      now: " + line);
+                }
+                if (!newScans.isEmpty()) {
+                    System.out.println("      now scans: " + String.join(", ", newScans));
+                }
+            }
+        }
+        for (String name : baselines.keySet()) {
+            if (!plans.containsKey(name)) {
+                System.out.println(String.format("%-28s  %-10s", name, "REMOVED"));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * EXPLAIN QUERY PLAN lines, indented two spaces per level.
+     */
+    private static List<String> explain(Connection conn, Query q) throws SQLException {
+        Map<Integer, Integer> depth = new LinkedHashMap<>();
+        List<String> lines = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("EXPLAIN QUERY PLAN " + q.sql)) {
+            bind(ps, q.params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    int level = depth.getOrDefault(rs.getInt(2), -1) + 1;
+                    depth.put(id, level);
+                    lines.add("  ".repeat(level) + rs.getString(4));
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Median wall time in milliseconds to run the query and read every row.
+     */
+    private static double time(Connection conn, Query q, int runs) throws SQLException {
+        double[] samples = new double[Math.max(1, runs)];
+        try (PreparedStatement ps = conn.prepareStatement(q.sql)) {
+            bind(ps, q.params);
+            for (int i = 0; i < samples.length; i++) {
+                long start = System.nanoTime();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getObject(1);
+                    }
+                }
+                samples[i] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+
+    private static void bind(PreparedStatement ps, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Tables (by name or alias) the plan reads with a full scan.
+     */
+    private static Set<String> scanned(List<String> plan) {
+        Set<String> tables = new LinkedHashSet<>();
+        for (String line : normalize(plan)) {
+            if (line.startsWith("SCAN ")) {
+                String[] words = line.split(" ");
+                tables.add(words[1]);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Plan lines without indentation, in the wording of current SQLite
+     * versions (older ones say "SCAN TABLE x" / "SEARCH TABLE x").
+     */
+    private static List<String> normalize(List<String> plan) {
+        List<String> lines = new ArrayList<>();
+        for (String line : plan) {
+            lines.add(line.trim().replace("SCAN TABLE ", "SCAN ").replace("SEARCH TABLE ", "SEARCH "));
+        }
+        return lines;
+    }
+
+    private static void printPlans(Map<String, List<String>> plans, Map<String, Double> millis) {
+        for (Map.Entry<String, List<String>> e : plans.entrySet()) {
+            Double ms = millis.get(e.getKey());
+            System.out.println(e.getKey() + (ms == null ? "" : String.format(" (%.3f ms)", ms)));
+            for (String line : e.getValue()) {
+                System.out.println("    " + line);
+            }
+        }
+    }
+
+    /**
+     * Baseline file: "[query name]" followed by its plan lines.
+     */
+    private static void writeBaselines(Path file, Map<String, List<String>> plans, String version)
+            throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# EXPLAIN QUERY PLAN baselines checked by tools.QueryPlanCheck.\n");
+            out.write("# Re-record after an intended plan change: java tools.QueryPlanCheck --record\n");
+            out.write(VERSION_HEADER + version + "\n");
+            for (Map.Entry<String, List<String>> e : plans.entrySet()) {
+                out.write("\n[" + e.getKey() + "]\n");
+                for (String line : e.getValue()) {
+                    out.write(line + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * SQLite version named in the baseline header, or null if none is.
+     */
+    private static String baselineVersion(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith(VERSION_HEADER)) {
+                return line.substring(VERSION_HEADER.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String sqliteVersion(Connection conn) throws SQLException {
+        return first(conn, "SELECT sqlite_version();");
+    }
+
+    private static Map<String, List<String>> readBaselines(Path file) throws IOException {
+        Map<String, List<String>> baselines = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            System.out.println("No baseline file " + file + "; run with --record to create it.");
+            return baselines;
+        }
+        List<String> current = null;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                current = new ArrayList<>();
+                baselines.put(line.substring(1, line.length() - 1), current);
+            } else if (current != null) {
+                current.add(line);
+            }
+        }
+        return baselines;
+    }
+
+    /**
+     * Adds scale-1 replicas of the scaled tables, with member, equipment and
+     * rental ids shifted so every replica is a separate, consistent copy.
+     */
+    private static void scaleUp(Path copy, int scale) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy)) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                for (String table : SCALED_TABLES) {
+                    List<String> columns = new ArrayList<>();
+                    try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ");")) {
+                        while (rs.next()) {
+                            columns.add(rs.getString("name"));
+                        }
+                    }
+                    stmt.executeUpdate("CREATE TEMP TABLE original_" + table + " AS SELECT * FROM " + table + ";");
+                    for (int k = 1; k < scale; k++) {
+                        StringBuilder select = new StringBuilder();
+                        for (String column : columns) {
+                            if (select.length() > 0) {
+                                select.append(", ");
+                            }
+                            if (SHIFTED_COLUMNS.contains(column.toLowerCase())) {
+                                select.append("CASE WHEN typeof(").append(column).append(") = 'integer' THEN ")
+                                        .append(column).append(" + ").append(k * REPLICA_OFFSET)
+                                        .append(" ELSE ").append(column).append(" END");
+                            } else {
+                                select.append(column);
+                            }
+                        }
+                        stmt.executeUpdate("INSERT OR IGNORE INTO " + table + " (" + String.join(", ", columns)
+                                + ") SELECT " + select + " FROM original_" + table + ";");
+                    }
+                    stmt.executeUpdate("DROP TABLE original_" + table + ";");
+                }
+                stmt.executeUpdate("ANALYZE;");
+            }
+            conn.commit();
+        }
+        System.out.println("Scaled " + String.join(", ", SCALED_TABLES) + " x" + scale + ".");
+    }
+
+    private static String first(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
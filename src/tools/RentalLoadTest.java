@@ -0,0 +1,527 @@
+package tools;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import options.ManageRentals;
+import sql.Availability;
+import sql.ConnectionProfile;
+import sql.MemberSummary;
+import sql.ResultTable;
+import sql.SQL;
+import sql.ServiceArea;
+import sql.WritePolicy;
+import utilities.EntityDefinition;
+
+/**
+ * Load test for the rental workflows: create rental, schedule delivery,
+ * record return and schedule pickup, run concurrently against a copy of
+ * the database.
+ *
+ * Each worker thread has its own connection with the active connection
+ * profile applied, and issues the same statements as the Rentals menu
+ * options, in autocommit. Rentals move through their lifecycle: a created
+ * rental can be delivered, a delivered one returned, a returned one picked
+ * up. When the chosen operation has no rental ready for it, a rental is
+ * created instead.
+ *
+ * Operations make the same checks as the application: referenced rows must
+ * exist, and a rental takes equipment that {@link Availability} lists as
+ * free, holds it with {@link Availability#reserve} and is inserted only if
+ * {@link Availability#NOT_RENTED_CONDITION} still holds. The workers share
+ * one Availability index, as users of one running program do; separate
+ * programs would share only the database guard. An operation turned away
+ * by a check is counted as rejected, not failed.
+ *
+ * With --rate, operations are started on a fixed schedule and latency is
+ * measured from the scheduled start, so time spent queued behind a slow
+ * operation counts. Writes go through {@link WritePolicy}, as in the
+ * application; its busy retries, give-ups and the time lost to them are
+ * reported per operation with throughput and latency percentiles.
+ *
+ * Usage: java tools.RentalLoadTest [database] [--threads N] [--seconds N] [--rate ops_per_sec]
+ *                                  [--mix create=40,delivery=25,return=20,pickup=15]
+ */
+public class RentalLoadTest {
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    enum Operation {
+        CREATE, DELIVERY, RETURN, PICKUP
+    }
+
+    private static final String RENTAL_TABLE = EntityDefinition.RENTAL_TRANSACTION.getTableName();
+    private static final String MEMBER_TABLE = EntityDefinition.COMMUNITY_MEMBER.getTableName();
+    private static final String EQUIPMENT_TABLE = EntityDefinition.EQUIPMENT.getTableName();
+    private static final String DRONE_TABLE = EntityDefinition.DRONE.getTableName();
+
+    private static final String INSERT_RENTAL = SQL.insertIfSql(RENTAL_TABLE,
+            EntityDefinition.RENTAL_TRANSACTION.getAttributes(), Availability.NOT_RENTED_CONDITION);
+    private static final String INSERT_DELIVERY = SQL.insertSql(
+            EntityDefinition.DRONE_PERFORMS_DELIVERY.getTableName(),
+            EntityDefinition.DRONE_PERFORMS_DELIVERY.getAttributes());
+    private static final String INSERT_PICKUP = SQL.insertSql(
+            EntityDefinition.DRONE_PERFORMS_RETURN.getTableName(),
+            EntityDefinition.DRONE_PERFORMS_RETURN.getAttributes());
+
+    // Shared by all workers
+    private static final List<String> members = new ArrayList<>();
+    private static final List<String> drones = new ArrayList<>();
+    private static final AtomicLong nextRentalId = new AtomicLong();
+    private static final Map<Operation, Queue<String>> ready = new EnumMap<>(Operation.class);
+    private static final Map<Operation, WritePolicy.Metrics> writes = new EnumMap<>(Operation.class);
+
+    public static void main(String[] args) throws Exception {
+        Path database = Paths.get("DroneDeliveryDBS.db");
+        int threads = 8;
+        int seconds = 10;
+        double rate = 0;
+        String mix = "create=40,delivery=25,return=20,pickup=15";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--mix":
+                    mix = args[++i];
+                    break;
+                default:
+                    database = Paths.get(args[i]);
+            }
+        }
+        int[] weights = parseMix(mix);
+
+        ConnectionProfile.loadActive(Paths.get(SQL.PROFILE_CONFIG));
+        ConnectionProfile profile = ConnectionProfile.getActive();
+
+        Path copy = Files.createTempFile("rental-load-", ".db");
+        try {
+            Files.copy(database, copy, StandardCopyOption.REPLACE_EXISTING);
+            String url = "jdbc:sqlite:" + copy;
+            // Shared connection, from which Availability loads its index
+            SQL.initializeDB(copy.toString());
+            setUp(url, profile);
+
+            System.out.println("threads=" + threads + ", seconds=" + seconds
+                    + ", rate=" + (rate > 0 ? rate + "/s" : "unlimited") + ", mix=" + mix
+                    + ", profile=" + profile.getName());
+
+            long start = System.nanoTime();
+            long deadline = start + seconds * 1_000_000_000L;
+            long interval = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+            AtomicLong tickets = new AtomicLong();
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Map<Operation, Stats>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> runWorker(url, profile, weights, start, deadline, interval, tickets)));
+            }
+            pool.shutdown();
+
+            Map<Operation, Stats> total = new EnumMap<>(Operation.class);
+            for (Operation op : Operation.values()) {
+                total.put(op, new Stats());
+            }
+            for (Future<Map<Operation, Stats>> f : results) {
+                for (Map.Entry<Operation, Stats> e : f.get().entrySet()) {
+                    total.get(e.getKey()).merge(e.getValue());
+                }
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            printReport(total, elapsed);
+        } finally {
+            SQL.closeConnection();
+            Files.deleteIfExists(Paths.get(copy + ".changes.log"));
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(Paths.get(copy + "-wal"));
+            Files.deleteIfExists(Paths.get(copy + "-shm"));
+            Files.deleteIfExists(Paths.get(copy + "-journal"));
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Reads the ids the workers pick from and creates the indexes and
+     * summary triggers the application would have in place.
+     */
+    private static void setUp(String url, ConnectionProfile profile) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url)) {
+            profile.apply(conn, ConnectionProfile.Role.WRITER);
+            MemberSummary.ensure(conn);
+            ServiceArea.ensureIndexes(conn);
+            Availability.ensureIndex(conn);
+
+            readIds(conn, "SELECT member_id FROM " + MEMBER_TABLE + " WHERE typeof(member_id) = 'integer';", members);
+            readIds(conn, "SELECT drone_id FROM " + DRONE_TABLE + " WHERE typeof(drone_id) = 'integer';", drones);
+            if (members.isEmpty() || Availability.available(null, null).isEmpty() || drones.isEmpty()) {
+                throw new SQLException("Need at least one member, piece of available equipment and drone.");
+            }
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT MAX(rental_id) FROM " + RENTAL_TABLE
+                         + " WHERE typeof(rental_id) = 'integer';")) {
+                nextRentalId.set((rs.next() ? rs.getLong(1) : 0) + 1);
+            }
+        }
+        for (Operation op : Operation.values()) {
+            ready.put(op, new ConcurrentLinkedQueue<>());
+            writes.put(op, new WritePolicy.Metrics());
+        }
+    }
+
+    private static void readIds(Connection conn, String sql, List<String> ids) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                ids.add(rs.getString(1));
+            }
+        }
+    }
+
+    private static Map<Operation, Stats> runWorker(String url, ConnectionProfile profile, int[] weights,
+                                                   long start, long deadline, long interval, AtomicLong tickets)
+            throws SQLException, InterruptedException {
+        Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+        for (Operation op : Operation.values()) {
+            stats.put(op, new Stats());
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        try (Connection conn = DriverManager.getConnection(url)) {
+            profile.apply(conn, ConnectionProfile.Role.WRITER);
+            WritePolicy.applyDefaultBusyTimeout(conn, profile);
+            while (true) {
+                long scheduled = System.nanoTime();
+                if (interval > 0) {
+                    scheduled = start + tickets.getAndIncrement() * interval;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                }
+                if (scheduled >= deadline || System.nanoTime() >= deadline) {
+                    break;
+                }
+
+                Operation op = pick(weights, random);
+                String rentalId = op == Operation.CREATE ? null : ready.get(op).poll();
+                if (rentalId == null) {
+                    op = Operation.CREATE;
+                    rentalId = String.valueOf(nextRentalId.getAndIncrement());
+                }
+                Stats s = stats.get(op);
+
+                try {
+                    String rejected = perform(conn, op, rentalId, random);
+                    if (rejected != null) {
+                        s.reject(rejected);
+                        continue;
+                    }
+                    s.record(System.nanoTime() - scheduled);
+                    Operation next = next(op);
+                    if (next != null) {
+                        ready.get(next).add(rentalId);
+                    }
+                } catch (SQLException e) {
+                    s.fail(e);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Runs one operation with the statements and checks its menu option
+     * uses.
+     *
+     * @return why a check turned the operation away, or null if it ran
+     */
+    private static String perform(Connection conn, Operation op, String rentalId, ThreadLocalRandom random)
+            throws SQLException {
+        switch (op) {
+            case CREATE: {
+                String memberId = members.get(random.nextInt(members.size()));
+                if (!exists(conn, MEMBER_TABLE, "member_id", memberId)) {
+                    return "member " + memberId + " not found";
+                }
+                // Free equipment, as the find-available option lists it
+                ResultTable free = Availability.available(null, null);
+                if (free.isEmpty()) {
+                    return "no equipment available";
+                }
+                String equipmentId = free.getValue(random.nextInt(free.getRowCount()), 0);
+                if (!exists(conn, EQUIPMENT_TABLE, "equipment_id", equipmentId)) {
+                    return "equipment " + equipmentId + " not found";
+                }
+                Availability.Reservation r = Availability.reserve(equipmentId);
+                if (r != Availability.Reservation.RESERVED) {
+                    return "equipment " + equipmentId + " " + r.name().toLowerCase().replace('_', ' ');
+                }
+                int rows;
+                try {
+                    LocalDateTime now = LocalDateTime.now();
+                    rows = update(conn, op, INSERT_RENTAL, now.format(DATE_TIME), rentalId, equipmentId, memberId,
+                            now.toLocalDate().plusDays(7).toString(), null, "25.00", equipmentId);
+                } catch (SQLException e) {
+                    Availability.release(equipmentId);
+                    throw e;
+                }
+                if (rows == 0) {
+                    Availability.release(equipmentId);
+                    return "equipment " + equipmentId + " already rented";
+                }
+                Availability.rented(equipmentId, rentalId);
+                return null;
+            }
+            case DELIVERY: {
+                if (!exists(conn, RENTAL_TABLE, "rental_id", rentalId)) {
+                    return "rental " + rentalId + " not found";
+                }
+                // Suggested drone and distance, as the delivery option shows them
+                String wrhsAddress = null;
+                String weight = null;
+                try (PreparedStatement ps = conn.prepareStatement(ServiceArea.ROUTE_SQL)) {
+                    ps.setString(1, rentalId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            wrhsAddress = rs.getString(3);
+                            weight = rs.getString(6);
+                        }
+                    }
+                }
+                String droneId = drones.get(random.nextInt(drones.size()));
+                try (PreparedStatement ps = conn.prepareStatement(ServiceArea.DRONES_SQL)) {
+                    ps.setString(1, wrhsAddress);
+                    ps.setString(2, weight == null ? "0" : weight);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            droneId = rs.getString(1);
+                        }
+                    }
+                }
+                if (!exists(conn, DRONE_TABLE, "drone_id", droneId)) {
+                    return "drone " + droneId + " not found";
+                }
+                update(conn, op, INSERT_DELIVERY, rentalId, droneId, "12.50");
+                return null;
+            }
+            case RETURN: {
+                if (!exists(conn, RENTAL_TABLE, "rental_id", rentalId)) {
+                    return "rental " + rentalId + " not found";
+                }
+                int rows = WritePolicy.execute(conn, c -> {
+                    try (PreparedStatement ps = c.prepareStatement(ManageRentals.selectReturnDateSql(RENTAL_TABLE))) {
+                        ps.setString(1, rentalId);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            rs.next();
+                        }
+                    }
+                    return set(c, ManageRentals.recordReturnSql(RENTAL_TABLE), LocalDate.now().toString(), rentalId);
+                }, writes.get(op));
+                if (rows > 0) {
+                    Availability.returned(rentalId);
+                }
+                return null;
+            }
+            case PICKUP: {
+                String droneId = drones.get(random.nextInt(drones.size()));
+                if (!exists(conn, RENTAL_TABLE, "rental_id", rentalId)) {
+                    return "rental " + rentalId + " not found";
+                }
+                if (!exists(conn, DRONE_TABLE, "drone_id", droneId)) {
+                    return "drone " + droneId + " not found";
+                }
+                update(conn, op, INSERT_PICKUP, rentalId, droneId);
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Operation next(Operation op) {
+        switch (op) {
+            case CREATE:
+                return Operation.DELIVERY;
+            case DELIVERY:
+                return Operation.RETURN;
+            case RETURN:
+                return Operation.PICKUP;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean exists(Connection conn, String table, String column, String value) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(ManageRentals.existsSql(table, column))) {
+            ps.setString(1, value);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * One write statement, run through the write policy.
+     *
+     * @return the number of rows written
+     */
+    private static int update(Connection conn, Operation op, String sql, String... values) throws SQLException {
+        return WritePolicy.execute(conn, c -> set(c, sql, values), writes.get(op));
+    }
+
+    private static int set(Connection conn, String sql, String... values) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < values.length; i++) {
+                ps.setString(i + 1, values[i]);
+            }
+            return ps.executeUpdate();
+        }
+    }
+
+    private static Operation pick(int[] weights, ThreadLocalRandom random) {
+        int total = Arrays.stream(weights).sum();
+        int r = random.nextInt(total);
+        for (Operation op : Operation.values()) {
+            r -= weights[op.ordinal()];
+            if (r < 0) {
+                return op;
+            }
+        }
+        return Operation.CREATE;
+    }
+
+    /**
+     * "create=40,delivery=25,return=20,pickup=15" -> weights by operation.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[Operation.values().length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            weights[Operation.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("Mix has no operations: " + mix);
+        }
+        return weights;
+    }
+
+    private static void printReport(Map<Operation, Stats> total, double elapsed) {
+        System.out.println("operation,  ok,  failed,  rejected,  ops_per_sec,  p50_ms,  p95_ms,  p99_ms,  max_ms,"
+                + "  busy_retries,  gave_up,  lock_wait_ms");
+        Stats all = new Stats();
+        for (Map.Entry<Operation, Stats> e : total.entrySet()) {
+            printLine(e.getKey().name().toLowerCase(), e.getValue(), writes.get(e.getKey()), elapsed);
+            all.merge(e.getValue());
+        }
+        printLine("all", all, WritePolicy.totals(), elapsed);
+        for (Map.Entry<Operation, Stats> e : total.entrySet()) {
+            if (e.getValue().firstError != null) {
+                System.out.println(e.getKey().name().toLowerCase() + " first error: " + e.getValue().firstError);
+            }
+            if (e.getValue().firstRejection != null) {
+                System.out.println(e.getKey().name().toLowerCase() + " first rejection: "
+                        + e.getValue().firstRejection);
+            }
+        }
+    }
+
+    private static void printLine(String label, Stats s, WritePolicy.Metrics w, double elapsed) {
+        long[] sorted = Arrays.copyOf(s.latencies, s.count);
+        Arrays.sort(sorted);
+        System.out.println(String.format("%s,  %d,  %d,  %d,  %.1f,  %.2f,  %.2f,  %.2f,  %.2f,  %d,  %d,  %d",
+                label, s.count, s.failed, s.rejected, s.count / elapsed,
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                percentile(sorted, 1.0), w.getRetries(), w.getGaveUp(), w.getWaitMillis()));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+
+    /**
+     * One operation's results on one worker (then merged).
+     */
+    private static final class Stats {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long failed = 0;
+        long rejected = 0;
+        String firstError = null;
+        String firstRejection = null;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+
+        void fail(SQLException e) {
+            failed++;
+            if (firstError == null) {
+                firstError = e.getMessage();
+            }
+        }
+
+        void reject(String reason) {
+            rejected++;
+            if (firstRejection == null) {
+                firstRejection = reason;
+            }
+        }
+
+        void merge(Stats other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i]);
+            }
+            failed += other.failed;
+            rejected += other.rejected;
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+            if (firstRejection == null) {
+                firstRejection = other.firstRejection;
+            }
+        }
+    }
+}
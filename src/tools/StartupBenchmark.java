@@ -0,0 +1,87 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures application startup the way a kiosk sees it: launches a fresh JVM
+ * running DBMSPrimaryInterface with --timing, opens Report 3, exits, and
+ * collects the time-to-first-menu and time-to-first-query it prints.
+ *
+ * Usage: java tools.StartupBenchmark [runs]
+ * Run from the directory that holds the database file.
+ */
+public class StartupBenchmark {
+
+    /**
+     * Menu input: Reports -> Report 3 -> back -> exit.
+     */
+    private static final String SCRIPT = "6\n3\n0\n0\n";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+
+        List<Long> menuTimes = new ArrayList<>();
+        List<Long> queryTimes = new ArrayList<>();
+
+        System.out.println("run,  time_to_first_menu_ms,  time_to_first_query_ms");
+        for (int run = 1; run <= runs; run++) {
+            Process p = new ProcessBuilder(java, "-cp", classpath, "DBMSPrimaryInterface", "--timing")
+                    .redirectErrorStream(true)
+                    .start();
+            try (OutputStream in = p.getOutputStream()) {
+                in.write(SCRIPT.getBytes(StandardCharsets.UTF_8));
+            }
+
+            long menu = -1;
+            long query = -1;
+            try (BufferedReader out = new BufferedReader(
+                    new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    // Menu prompts do not end in a newline, so match anywhere in the line.
+                    int at = line.indexOf("[timing] ");
+                    if (at < 0) {
+                        continue;
+                    }
+                    String timing = line.substring(at + "[timing] ".length());
+                    long ms = Long.parseLong(timing.replaceAll("\\D", ""));
+                    if (timing.startsWith("time-to-first-menu")) {
+                        menu = ms;
+                    } else if (timing.startsWith("time-to-first-query")) {
+                        query = ms;
+                    }
+                }
+            }
+            p.waitFor();
+
+            System.out.println(run + ",  " + menu + ",  " + query);
+            if (menu >= 0) {
+                menuTimes.add(menu);
+            }
+            if (query >= 0) {
+                queryTimes.add(query);
+            }
+        }
+
+        System.out.println("median,  " + median(menuTimes) + ",  " + median(queryTimes));
+    }
+
+    private static long median(List<Long> values) {
+        if (values.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,149 @@
+package tools;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import options.TimeSeriesReports;
+import sql.WritePolicy;
+
+/**
+ * Runs the application's write paths against a copy of the database and
+ * checks what they leave behind, so a change that breaks a write (rather
+ * than a query plan) is caught before a user hits it.
+ *
+ * Each check gets its own fresh copy of the database. Exits with status 1
+ * if any check fails.
+ *
+ * Usage: java tools.WriteCheck [database]
+ */
+public class WriteCheck {
+
+    @FunctionalInterface
+    private interface Check {
+        void run(Connection conn) throws Exception;
+    }
+
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Path database = Paths.get(args.length > 0 ? args[0] : "DroneDeliveryDBS.db");
+
+        run(database, "nested write joins the enclosing transaction", WriteCheck::nestedWrite);
+        run(database, "failed nested write rolls back the enclosing one", WriteCheck::nestedWriteFails);
+        run(database, "report 7 builds and refreshes the daily rollup", WriteCheck::dailyRollup);
+
+        if (failures.isEmpty()) {
+            System.out.println("All write checks passed.");
+        } else {
+            System.out.println(failures.size() + " write check(s) failed: " + String.join("; ", failures));
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Checks
+     */
+
+    private static void nestedWrite(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE Write_Check (id INTEGER PRIMARY KEY);");
+        WritePolicy.execute(conn, c -> {
+            execute(c, "INSERT INTO Write_Check (id) VALUES (1);");
+            return WritePolicy.execute(c, inner -> {
+                execute(inner, "INSERT INTO Write_Check (id) VALUES (2);");
+                return null;
+            });
+        });
+        expect(count(conn, "SELECT COUNT(*) FROM Write_Check;") == 2, "both rows committed");
+        expect(conn.getAutoCommit(), "connection back in auto-commit");
+    }
+
+    private static void nestedWriteFails(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE Write_Check (id INTEGER PRIMARY KEY);");
+        try {
+            WritePolicy.execute(conn, c -> {
+                execute(c, "INSERT INTO Write_Check (id) VALUES (1);");
+                return WritePolicy.execute(c, inner -> {
+                    execute(inner, "INSERT INTO Write_Check (id) VALUES (1);");
+                    return null;
+                });
+            });
+            expect(false, "duplicate key reported");
+        } catch (SQLException e) {
+            // Expected: the inner insert violates the primary key
+        }
+        expect(count(conn, "SELECT COUNT(*) FROM Write_Check;") == 0, "outer row rolled back");
+
+        // The connection is usable for the next write
+        WritePolicy.execute(conn, c -> {
+            execute(c, "INSERT INTO Write_Check (id) VALUES (3);");
+            return null;
+        });
+        expect(count(conn, "SELECT COUNT(*) FROM Write_Check;") == 1, "next write committed");
+    }
+
+    private static void dailyRollup(Connection conn) throws SQLException {
+        execute(conn, "DROP TABLE IF EXISTS Daily_Activity;");
+        for (String metric : new String[] {
+                TimeSeriesReports.METRIC_RENTALS, TimeSeriesReports.METRIC_MILES, TimeSeriesReports.METRIC_MAINT }) {
+            TimeSeriesReports.refreshRollup(conn, metric, false);
+            TimeSeriesReports.refreshRollup(conn, metric, false);
+            TimeSeriesReports.refreshRollup(conn, metric, true);
+        }
+        expect(count(conn, "SELECT COUNT(*) FROM Daily_Activity WHERE metric = '"
+                + TimeSeriesReports.METRIC_RENTALS + "';")
+                == count(conn, "SELECT COUNT(DISTINCT date(checkout_date)) FROM Rental_Transaction "
+                        + "WHERE date(checkout_date) IS NOT NULL;"), "one rentals row per checkout day");
+        expect(conn.getAutoCommit(), "connection back in auto-commit");
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private static void run(Path database, String name, Check check) throws Exception {
+        Path copy = Files.createTempFile("write-check-", ".db");
+        try {
+            Files.copy(database, copy, StandardCopyOption.REPLACE_EXISTING);
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy)) {
+                check.run(conn);
+                System.out.println("ok      " + name);
+            } catch (Exception | AssertionError e) {
+                System.out.println("FAILED  " + name + ": " + e.getMessage());
+                failures.add(name);
+            }
+        } finally {
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(Paths.get(copy + "-wal"));
+            Files.deleteIfExists(Paths.get(copy + "-shm"));
+            Files.deleteIfExists(Paths.get(copy + "-journal"));
+        }
+    }
+
+    private static void expect(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("expected " + what);
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
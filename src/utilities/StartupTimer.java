@@ -0,0 +1,55 @@
+package utilities;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Optional startup timing: with --timing, prints how long it took from JVM
+ * start to the first main menu and to the first completed query.
+ * tools.StartupBenchmark collects these lines over repeated launches.
+ */
+public final class StartupTimer {
+
+    private static boolean enabled = false;
+    private static boolean menuReported = false;
+    private static boolean queryReported = false;
+
+    // Private constructor to prevent instantiation
+    private StartupTimer() {
+    }
+
+    /**
+     * Turns on startup timing output (the --timing command line flag).
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Called each time the main menu is printed; reports the first one.
+     */
+    public static synchronized void menuShown() {
+        if (enabled && !menuReported) {
+            menuReported = true;
+            report("time-to-first-menu");
+        }
+    }
+
+    /**
+     * Called each time a query finishes; reports the first one.
+     */
+    public static synchronized void queryCompleted() {
+        if (enabled && !queryReported) {
+            queryReported = true;
+            report("time-to-first-query");
+        }
+    }
+
+    /**
+     * Prints milliseconds since the JVM started, so class loading and JVM
+     * startup are included.
+     */
+    private static void report(String label) {
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("[timing] " + label + ": " + (System.currentTimeMillis() - jvmStart) + " ms");
+    }
+}
@@ -1,5 +1,7 @@
 package utilities;
 
+import sql.RentalDetails;
+
 public final class Utilities {
 
     // Private constructor to prevent instantiation
@@ -29,8 +31,12 @@ public final class Utilities {
         System.out.println("  (4): Search for an entity.");
         System.out.println("  (5): List all records by entity.");
         System.out.println("  (6): Generate Reports.");
+        System.out.println("  (7): Output settings (console or export to file).");
+        System.out.println("  (8): Backup and restore.");
+        System.out.println("  (9): Archive closed rentals and old reviews.");
         System.out.println("  (0): Exit");
         System.out.print("> ");
+        StartupTimer.menuShown();
     }
 
     /**
@@ -74,6 +80,11 @@ public final class Utilities {
         System.out.println("  (2): Register an equipment return.");
         System.out.println("  (3): Schedule a delivery.");
         System.out.println("  (4): Schedule a pickup.");
+        System.out.println("  (5): View rental details.");
+        System.out.println("  (6): Find members near a warehouse.");
+        System.out.println("  (7): Find equipment available now.");
+        System.out.println("  (8): Toggle member/equipment cache for rental details (now "
+                + (RentalDetails.isCacheEnabled() ? "on" : "off") + ").");
         System.out.println("  (0): Back to main menu.");
         System.out.print("> ");
     }